@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 A.Solyankin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qantium.benchmarks;
+
+import com.qantium.data.Data;
+import com.qantium.data.DataGenerator;
+import com.qantium.handlers.RegexpParcer;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The Data pipeline, run over the pairwise table generated for each scenario
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DataBenchmark {
+
+    @Param({"10x3", "40x10", "100x20"})
+    public String scenario;
+
+    private Data data;
+    private Data tabulated;
+    private RegexpParcer handler;
+
+    @Setup
+    public void setUp() {
+        data = DataGenerator.generatePairwiseMatrix(Scenarios.matrix(scenario));
+        tabulated = DataGenerator.generatePairwiseMatrix(Scenarios.matrix(scenario)).withTabulation(true);
+        // splits every "p3v7" cell in two
+        handler = new RegexpParcer("p(\\d+)v(\\d+)");
+    }
+
+    /**
+     * handleBy and normalize only record the transformation, get() runs it
+     */
+    @Benchmark
+    public Object[][] handleBy() {
+        return data.handleBy(handler).get();
+    }
+
+    @Benchmark
+    public Object[][] normalize() {
+        return data.normalize().get();
+    }
+
+    @Benchmark
+    public Writer toCSV(Blackhole blackhole) throws IOException {
+        return data.toCSV(new BlackholeWriter(blackhole), "|");
+    }
+
+    @Benchmark
+    public Writer toCSVWithTabulation(Blackhole blackhole) throws IOException {
+        return tabulated.toCSV(new BlackholeWriter(blackhole), "|");
+    }
+
+    @Benchmark
+    public Writer toHTML(Blackhole blackhole) throws IOException {
+        return data.toHTML(new BlackholeWriter(blackhole));
+    }
+
+    /**
+     * Consumes the output, so the benchmarks measure the export and not the destination
+     */
+    private static class BlackholeWriter extends Writer {
+
+        private final Blackhole blackhole;
+
+        BlackholeWriter(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            blackhole.consume(buffer);
+        }
+
+        @Override
+        public void write(String string) {
+            blackhole.consume(string);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 A.Solyankin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qantium.benchmarks;
+
+import com.qantium.pairwise.IInventory;
+import com.qantium.pairwise.PairwiseInventory;
+import com.qantium.pairwise.PairwiseInventoryFactory;
+import com.qantium.pairwise.Scenario;
+import com.qantium.pairwise.TestDataSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The pairwise engine: building the molecules, running the algorithm and turning the raw test sets into values
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PairwiseBenchmark {
+
+    @Param({"10x3", "40x10", "100x20"})
+    public String scenario;
+
+    private Scenario parameters;
+    private IInventory inventory;
+    private TestDataSet testDataSet;
+
+    @Setup
+    public void setUp() {
+        parameters = PairwiseInventoryFactory.generateScenario(null, Scenarios.matrix(scenario));
+        inventory = PairwiseInventoryFactory.generateMatrixInventory(Scenarios.matrix(scenario));
+        testDataSet = inventory.getTestDataSet();
+    }
+
+    @Benchmark
+    public IInventory buildMolecules() {
+        IInventory built = new PairwiseInventory();
+        built.setScenario(parameters);
+        built.buildMolecules();
+        return built;
+    }
+
+    @Benchmark
+    public TestDataSet buildTestCases() {
+        TestDataSet built = new TestDataSet(inventory.snapshot(), inventory.getScenario());
+        built.buildTestCases();
+        return built;
+    }
+
+    @Benchmark
+    public List<Map<Object, Object>> getTestSets() {
+        return testDataSet.getTestSets();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 A.Solyankin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qantium.benchmarks;
+
+/**
+ * Synthetic scenarios, described as "parameters x values"
+ */
+public final class Scenarios {
+
+    private Scenarios() {
+    }
+
+    /**
+     * @param size the scenario size, e.g. "40x10" for 40 parameters of 10 values each
+     * @return a matrix with one column per parameter and one row per value, cells look like "p3v7"
+     */
+    public static Object[][] matrix(String size) {
+        String[] dimensions = size.split("x");
+        int parameters = Integer.parseInt(dimensions[0]);
+        int values = Integer.parseInt(dimensions[1]);
+        Object[][] matrix = new Object[values][parameters];
+
+        for (int value = 0; value < values; value++) {
+
+            for (int parameter = 0; parameter < parameters; parameter++) {
+                matrix[value][parameter] = "p" + parameter + "v" + value;
+            }
+        }
+        return matrix;
+    }
+}
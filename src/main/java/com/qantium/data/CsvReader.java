@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 A.Solyankin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qantium.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a delimited file straight into the columns of a table: the file is
+ * memory-mapped and decoded once, then split on a single character in one
+ * pass, without regex and without intermediate lines or rows. The first line
+ * holds the names of the columns
+ *
+ * Lines are split like Files.readAllLines and String.split would do it: on
+ * \n, \r or \r\n, dropping the trailing empty cells of every line
+ */
+final class CsvReader {
+
+    private final char delimiter;
+    private final List<String> cells = new ArrayList<>();
+    private final List<List<Object>> columns = new ArrayList<>();
+    private Object[] names;
+
+    CsvReader(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    Object[] getNames() {
+        return names;
+    }
+
+    /**
+     * @return the values of every column, a line shorter than others adds
+     * nothing to the columns it lacks
+     */
+    List<List<Object>> getColumns() {
+        return columns;
+    }
+
+    CsvReader read(File csv) throws IOException {
+        CharBuffer chars;
+
+        try (FileChannel channel = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+            chars = StandardCharsets.UTF_8.newDecoder().decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+
+        char[] text = chars.array();
+        int end = chars.arrayOffset() + chars.limit();
+        int cellStart = chars.arrayOffset();
+
+        for (int i = cellStart; i < end; i++) {
+            char c = text[i];
+
+            if (c == delimiter) {
+                cells.add(new String(text, cellStart, i - cellStart));
+                cellStart = i + 1;
+            } else if (c == '\n' || c == '\r') {
+                cells.add(new String(text, cellStart, i - cellStart));
+                endLine();
+
+                if (c == '\r' && i + 1 < end && text[i + 1] == '\n') {
+                    i++;
+                }
+                cellStart = i + 1;
+            }
+        }
+
+        if (cellStart < end || !cells.isEmpty()) {
+            cells.add(new String(text, cellStart, end - cellStart));
+            endLine();
+        }
+        return this;
+    }
+
+    private void endLine() {
+        int count = cells.size();
+
+        // an empty line is a single empty cell, as "".split(...) is
+        if (count > 1 || !cells.get(0).isEmpty()) {
+
+            while (count > 0 && cells.get(count - 1).isEmpty()) {
+                count--;
+            }
+        }
+
+        if (names == null) {
+            names = cells.subList(0, count).toArray();
+        } else {
+
+            for (int j = 0; j < count; j++) {
+
+                if (j == columns.size()) {
+                    columns.add(new ArrayList<>());
+                }
+                columns.get(j).add(cells.get(j));
+            }
+        }
+        cells.clear();
+    }
+}
@@ -18,10 +18,13 @@ package com.qantium.data;
 import com.qantium.handlers.DataHandler;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import org.apache.commons.lang3.ArrayUtils;
 
 /**
@@ -30,15 +33,86 @@ import org.apache.commons.lang3.ArrayUtils;
  */
 public class Data {
 
+    private static final char[] PADDING = new char[64];
+
+    static {
+        Arrays.fill(PADDING, ' ');
+    }
+
+    private static final DataHandler[][] NO_HANDLERS = new DataHandler[0][];
+
+    /**
+     * The rows the pending transformations apply to, the first one is the
+     * header
+     */
     private Object[][] data;
+
+    /**
+     * Pending normalization: rows shorter than that are padded with nulls
+     */
+    private int normalizedWidth;
+
+    /**
+     * Pending handleBy calls, the handlers passed to each of them
+     */
+    private DataHandler[][] handlers = NO_HANDLERS;
+
+    /**
+     * For every pending handleBy call, whether the header was shown then: the
+     * calls made without it leave the header row as it is
+     */
+    private boolean[] handlesHeader = ArrayUtils.EMPTY_BOOLEAN_ARRAY;
     private boolean withHeader = true;
-    private Object[] header;
     private Object nullValue = "";
     private boolean tabulation;
-    private int[] tabulations;
-
+    private boolean parallel;
+    private boolean immutable;
+
+    /**
+     * The result of the pending transformations of an immutable Data, which
+     * keeps them pending so it can be shared between threads
+     */
+    private volatile Object[][] materialized;
+
+    /**
+     * Runs the pending transformations, once
+     *
+     * @return the rows, without the header if withHeader is off; copies of
+     * them if the Data is immutable
+     */
     public Object[][] get() {
-        return data;
+        Object[][] table = getTable();
+        int from = getFirstRow();
+
+        if (immutable) {
+            Object[][] rows = new Object[table.length - from][];
+
+            for (int i = from; i < table.length; i++) {
+                rows[i - from] = table[i].clone();
+            }
+            return rows;
+        }
+        return withHeader ? table : Arrays.copyOfRange(table, 1, table.length);
+    }
+
+    /**
+     * @return an immutable Data sharing the rows of this one: its with/replace
+     * methods return changed copies and get() copies the rows, so it can be
+     * shared, also between threads
+     */
+    public Data toImmutable() {
+
+        if (immutable) {
+            return this;
+        }
+
+        Data copy = derive(data, normalizedWidth, handlers, handlesHeader);
+        copy.immutable = true;
+        return copy;
+    }
+
+    public boolean isImmutable() {
+        return immutable;
     }
 
     public Data(Object[][] data) {
@@ -50,106 +124,217 @@ public class Data {
         this.data = data;
     }
 
+    /**
+     * Transformations are not run here: they are recorded, and run together in
+     * a single pass over the rows by the first of get(), toCSV() or toHTML()
+     * that needs them
+     */
     public Data normalize() {
+        // the width is only known once the pending handlers have run
+        Object[][] rows = handlers.length == 0 ? data : getTable();
         int columnsCount = 0;
 
-        for (Object[] row : data) {
+        for (Object[] row : rows) {
 
             if (row.length > columnsCount) {
                 columnsCount = row.length;
             }
         }
 
-        Object[][] normalizedData = new Object[data.length][];
+        return derive(rows, columnsCount, NO_HANDLERS, ArrayUtils.EMPTY_BOOLEAN_ARRAY);
+    }
 
-        for (int i = 0; i < normalizedData.length; i++) {
+    /**
+     * The handlers handle the columns of the first row they get, the header
+     * unless it is hidden, the last handler all the remaining columns. The
+     * count of columns is only checked here if no other handlers are pending,
+     * else once they have run
+     */
+    public Data handleBy(DataHandler... handlers) {
 
-            List row = new ArrayList();
-            row.addAll(Arrays.asList(data[i]));
+        if (ArrayUtils.isEmpty(handlers)) {
+            return this;
+        } else {
+            int firstRow = getFirstRow();
 
-            for (int j = 0; j < columnsCount - row.size(); j++) {
-                row.add(null);
+            if (this.handlers.length == 0 && firstRow < data.length) {
+                checkHandlers(handlers.length, Math.max(data[firstRow].length, normalizedWidth));
             }
-            normalizedData[i] = row.toArray();
+
+            return derive(data, normalizedWidth, ArrayUtils.add(this.handlers, handlers.clone()),
+                    ArrayUtils.add(handlesHeader, withHeader));
         }
+    }
+
+    private static void checkHandlers(int handlersCount, int dataColumnsCount) {
 
-        return copy(normalizedData);
+        if (handlersCount > dataColumnsCount) {
+            throw new IllegalArgumentException("Count of handlers must be equal or less than count of data columns!\n"
+                    + "Count of data columns: " + dataColumnsCount + "\n"
+                    + "Count of handlers: " + handlersCount + "\n");
+        }
     }
 
-    public Data handleBy(DataHandler... handlers) {
+    /**
+     * Runs the pending transformations over the whole table and keeps the
+     * result, so they never run twice
+     */
+    protected Object[][] getTable() {
 
-        List<DataHandler> handlerList = new ArrayList();
-        handlerList.addAll(Arrays.asList(handlers));
+        if (normalizedWidth == 0 && handlers.length == 0) {
+            return data;
+        }
 
-        if (ArrayUtils.isEmpty(handlers)) {
-            return this;
-        } else {
-            int handlersCount = handlers.length;
-            int dataColumnsCount = data[0].length;
+        if (immutable) {
+            Object[][] table = materialized;
 
-            if (handlersCount > dataColumnsCount) {
-                throw new IllegalArgumentException("Count of handlers must be equal or less than count of data columns!\n"
-                        + "Count of data columns: " + dataColumnsCount + "\n"
-                        + "Count of handlers: " + handlersCount + "\n");
+            if (table == null) {
+                materialized = table = transformAll();
             }
+            return table;
+        }
+
+        Object[][] table = transformAll();
+        data = table;
+        normalizedWidth = 0;
+        handlers = NO_HANDLERS;
+        handlesHeader = ArrayUtils.EMPTY_BOOLEAN_ARRAY;
+        return table;
+    }
+
+    private Object[][] transformAll() {
+        final Object[][] rows = data;
+        final Object[][] table = new Object[rows.length][];
 
-            if (handlersCount < dataColumnsCount) {
-                DataHandler lastHandle = handlers[handlers.length - 1];
+        // the header and the first row fix the count of columns of every handleBy call, the other rows just read them
+        final int[] columnsCounts = new int[handlers.length];
+        Arrays.fill(columnsCounts, -1);
+        table[0] = transformRow(rows[0], true, columnsCounts);
 
-                for (int i = 0; i < dataColumnsCount - handlersCount; i++) {
-                    handlerList.add(lastHandle);
+        if (rows.length > 1) {
+            table[1] = transformRow(rows[1], false, columnsCounts);
+        }
+
+        if (parallel) {
+            IntStream.range(2, rows.length).parallel().forEach(new IntConsumer() {
+                @Override
+                public void accept(int i) {
+                    table[i] = transformRow(rows[i], false, columnsCounts);
                 }
-            }
+            });
+        } else {
 
-            Object[][] handledData = new Object[data.length][];
+            for (int i = 2; i < rows.length; i++) {
+                table[i] = transformRow(rows[i], false, columnsCounts);
+            }
+        }
+        return table;
+    }
 
-            for (int i = 0; i < data.length; i++) {
+    /**
+     * Runs the pending transformations over a single row: missing cells are
+     * handed to the handlers as nulls
+     *
+     * @param columnsCounts the count of columns of every handleBy call, -1
+     * until the first row it handles sets it
+     */
+    protected Object[] transformRow(Object[] row, boolean header, int[] columnsCounts) {
+        Object[] transformed = row.length < normalizedWidth ? Arrays.copyOf(row, normalizedWidth) : row;
 
-                List handledRow = new ArrayList();
+        for (int i = 0; i < handlers.length; i++) {
 
-                for (int j = 0; j < dataColumnsCount; j++) {
-                    DataHandler handler = handlerList.get(j);
-                    Object[] handledCell = handler.handle(data[i][j]);
-                    handledRow.addAll(Arrays.asList(handledCell));
-                }
+            if (header && !handlesHeader[i]) {
+                continue;
+            }
 
-                handledData[i] = handledRow.toArray();
+            if (columnsCounts[i] < 0) {
+                checkHandlers(handlers[i].length, transformed.length);
+                columnsCounts[i] = transformed.length;
             }
+            transformed = handleRow(transformed, handlers[i], columnsCounts[i]);
+        }
+        return transformed;
+    }
 
-            return copy(handledData);
+    /**
+     * Handles every cell of the row first, then copies the handled cells into
+     * a row allocated once with the final width
+     */
+    protected Object[] handleRow(Object[] row, DataHandler[] handlers, int columnsCount) {
+        Object[][] handledCells = new Object[columnsCount][];
+        int width = 0;
+
+        for (int j = 0; j < columnsCount; j++) {
+            // the last handler handles all the remaining columns
+            DataHandler handler = handlers[Math.min(j, handlers.length - 1)];
+            handledCells[j] = handler.handle(j < row.length ? row[j] : null);
+            width += handledCells[j].length;
         }
+
+        Object[] handledRow = new Object[width];
+        int position = 0;
+
+        for (Object[] handledCell : handledCells) {
+            System.arraycopy(handledCell, 0, handledRow, position, handledCell.length);
+            position += handledCell.length;
+        }
+        return handledRow;
     }
 
     protected Data copy(Object[][] data) {
-        return new Data(data)
+        return derive(data, 0, NO_HANDLERS, ArrayUtils.EMPTY_BOOLEAN_ARRAY);
+    }
+
+    private Data derive(Object[][] data, int normalizedWidth, DataHandler[][] handlers, boolean[] handlesHeader) {
+        Data derived = new Data(data)
                 .withHeader(withHeader)
                 .withTabulation(tabulation)
-                .replaceNullBy(nullValue);
+                .replaceNullBy(nullValue)
+                .inParallel(parallel);
+        derived.normalizedWidth = normalizedWidth;
+        derived.handlers = handlers;
+        derived.handlesHeader = handlesHeader;
+        derived.immutable = immutable;
+        return derived;
     }
 
-    public Data withTabulation(boolean tabulation) {
-        this.tabulation = tabulation;
-
-        if (tabulation && tabulations == null) {
-            tabulations = new int[data[0].length];
+    /**
+     * @return the Data the with/replace methods change: this one, or a copy of
+     * it if it is immutable
+     */
+    private Data edit() {
 
-            for (int i = 0; i < data.length; i++) {
+        if (!immutable) {
+            return this;
+        }
 
-                for (int j = 0; j < data[i].length; j++) {
-                    Object cell = data[i][j];
+        Data copy = derive(data, normalizedWidth, handlers, handlesHeader);
+        copy.materialized = materialized;
+        return copy;
+    }
 
-                    if (cell != null) {
-                        int itemLength = data[i][j].toString().length();
+    /**
+     * @param parallel run the pending transformations on the common fork-join
+     * pool, the rows are split across it; the handlers must be thread-safe then
+     */
+    public Data inParallel(boolean parallel) {
+        Data edited = edit();
+        edited.parallel = parallel;
+        return edited;
+    }
 
-                        if (itemLength > tabulations[j]) {
-                            tabulations[j] = itemLength;
-                        }
-                    }
-                }
-            }
-        }
+    public boolean inParallel() {
+        return parallel;
+    }
 
-        return this;
+    /**
+     * @param tabulation right-align every column to its widest cell; the
+     * widths are measured when the table is written
+     */
+    public Data withTabulation(boolean tabulation) {
+        Data edited = edit();
+        edited.tabulation = tabulation;
+        return edited;
     }
 
     public boolean withTabulation() {
@@ -161,30 +346,50 @@ public class Data {
     }
 
     public Data replaceNullBy(Object value) {
-        nullValue = value;
-        return this;
+        Data edited = edit();
+        edited.nullValue = value;
+        return edited;
     }
 
+    /**
+     * @param withHeader false hides the first row from get(), toCSV() and
+     * toHTML(), true shows it again
+     */
     public Data withHeader(boolean withHeader) {
+        Data edited = edit();
+        edited.withHeader = withHeader;
+        return edited;
+    }
 
-        if (this.withHeader != withHeader) {
+    /**
+     * @return the index of the first row to output
+     */
+    protected int getFirstRow() {
+        return withHeader ? 0 : 1;
+    }
 
-            if (!withHeader && header == null) {
-                header = data[0];
-                data = ArrayUtils.remove(data, 0);
-            } else if (withHeader && header != null) {
-                Object[][] newData = new Object[data.length + 1][];
-                newData[0] = header;
+    protected int[] getTabulations(Object[][] table) {
+        int[] tabulations = new int[0];
 
-                for (int i = 0; i < data.length; i++) {
-                    newData[i + 1] = data[i];
-                }
-                data = newData;
+        for (int i = getFirstRow(); i < table.length; i++) {
+
+            if (table[i].length > tabulations.length) {
+                tabulations = Arrays.copyOf(tabulations, table[i].length);
             }
 
-            this.withHeader = withHeader;
+            for (int j = 0; j < table[i].length; j++) {
+                Object cell = table[i][j];
+
+                if (cell != null) {
+                    int itemLength = cell.toString().length();
+
+                    if (itemLength > tabulations[j]) {
+                        tabulations[j] = itemLength;
+                    }
+                }
+            }
         }
-        return this;
+        return tabulations;
     }
 
     public File toCSV(File file) throws IOException {
@@ -192,7 +397,10 @@ public class Data {
     }
 
     public File toCSV(File file, String delimiter) throws IOException {
-        Files.write(file.toPath(), toCSV(delimiter).getBytes());
+
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), Charset.defaultCharset())) {
+            toCSV(writer, delimiter);
+        }
         return file;
     }
 
@@ -201,13 +409,29 @@ public class Data {
     }
 
     public String toCSV(String delimiter) {
+        StringWriter table = new StringWriter();
+
+        try {
+            toCSV(table, delimiter);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return table.toString();
+    }
+
+    /**
+     * Writes the table row by row, the pending transformations run once for
+     * all the writes
+     */
+    public Writer toCSV(Writer table, String delimiter) throws IOException {
 
-        StringBuilder table = new StringBuilder();
         String lineSeparator = System.getProperty("line.separator");
+        Object[][] rows = getTable();
+        int[] tabulations = withTabulation() ? getTabulations(rows) : null;
 
-        for (int i = 0; i < data.length; i++) {
+        for (int i = getFirstRow(); i < rows.length; i++) {
 
-            Object[] row = data[i];
+            Object[] row = rows[i];
 
             for (int j = 0; j < row.length; j++) {
 
@@ -217,65 +441,92 @@ public class Data {
                     item = nullValue;
                 }
 
+                String cell = String.valueOf(item);
+
                 if (withTabulation()) {
-                    table.append(String.format("%" + tabulations[j] + "s", item.toString()));
-                } else {
-                    table.append(item);
+                    pad(table, tabulations[j] - cell.length());
                 }
+                table.write(cell);
 
                 if (j != row.length - 1) {
-                    table.append(delimiter);
+                    table.write(delimiter);
                 }
             }
 
-            if (i != data.length - 1) {
-                table.append(lineSeparator);
+            if (i != rows.length - 1) {
+                table.write(lineSeparator);
             }
         }
 
-        return table.toString();
+        return table;
+    }
+
+    /**
+     * Right-aligns the next cell like String.format("%Ns") would
+     */
+    protected void pad(Writer table, int count) throws IOException {
+
+        for (; count > 0; count -= PADDING.length) {
+            table.write(PADDING, 0, Math.min(count, PADDING.length));
+        }
     }
 
     public File toHTML(File file) throws IOException {
-        Files.write(file.toPath(), toHTML().getBytes());
+
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), Charset.defaultCharset())) {
+            toHTML(writer);
+        }
         return file;
     }
 
     public String toHTML() {
+        StringWriter table = new StringWriter();
 
-        StringBuilder table = new StringBuilder();
-        table.append("<table border='1'>");
+        try {
+            toHTML(table);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return table.toString();
+    }
+
+    public Writer toHTML(Writer table) throws IOException {
 
-        int index = 0;
+        table.write("<table border='1'>");
+
+        Object[][] rows = getTable();
+        int index = getFirstRow();
 
         if (withHeader()) {
-            table.append(wrap("th", data[index++]));
+            wrap(table, "th", rows[index++]);
         }
 
-        for (; index < data.length; index++) {
-            table.append(wrap("td", data[index]));
+        for (; index < rows.length; index++) {
+            wrap(table, "td", rows[index]);
         }
-        table.append("</table>");
-        return table.toString();
+        table.write("</table>");
+        return table;
     }
 
-    protected StringBuilder wrap(String tag, Object[] row) {
-        StringBuilder html = new StringBuilder();
-        html.append("<tr>");
+    protected void wrap(Writer html, String tag, Object[] row) throws IOException {
+        html.write("<tr>");
 
         for (Object cell : row) {
 
-            html.append("<").append(tag).append(">");
+            html.write("<");
+            html.write(tag);
+            html.write(">");
 
             if (cell != null) {
-                html.append(cell);
+                html.write(String.valueOf(cell));
             } else {
-                html.append(nullValue);
+                html.write(String.valueOf(nullValue));
             }
-            html.append("</").append(tag).append(">");
+            html.write("</");
+            html.write(tag);
+            html.write(">");
         }
-        html.append("</tr>");
-        return html;
+        html.write("</tr>");
     }
 
     @Override
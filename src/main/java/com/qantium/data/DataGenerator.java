@@ -15,15 +15,22 @@
  */
 package com.qantium.data;
 
+import com.qantium.pairwise.Constraints;
 import com.qantium.pairwise.IInventory;
 import com.qantium.pairwise.PairwiseInventoryFactory;
+import com.qantium.pairwise.Scenario;
+import com.qantium.pairwise.TestDataSet;
+import com.qantium.pairwise.TestSetCache;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.ArrayUtils;
 
 /**
  *
@@ -31,91 +38,300 @@ import java.util.Map;
  */
 public class DataGenerator {
 
+    private static volatile TestSetCache cache;
+
+    public static TestSetCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache where the generated test sets are kept across runs, null
+     * to generate them every time
+     */
+    public static void setCache(TestSetCache cache) {
+        DataGenerator.cache = cache;
+    }
+
+    private static volatile DataMemo memo;
+
+    /**
+     * Turns on remembering the Data of the last calls: calls with the same
+     * arguments, compared by content, share a single immutable Data. Covers the
+     * generate*Matrix, generate*Table and generateNWiseTable methods taking
+     * arrays or a String
+     *
+     * @param maxEntries the number of Data to remember, 0 to turn it off
+     */
+    public static void setMemoSize(int maxEntries) {
+
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Memo size must not be negative, but was " + maxEntries);
+        }
+        memo = maxEntries == 0 ? null : new DataMemo(maxEntries);
+    }
+
+    private static Data memoize(Supplier<Data> generator, Object... arguments) {
+        DataMemo memo = DataGenerator.memo;
+        return memo == null ? generator.get() : memo.get(generator, arguments);
+    }
+
+    /**
+     * @throws IllegalStateException if the thread gets interrupted, which
+     * stays interrupted
+     */
     public static Data generatePairwise(IInventory inventory) {
-        List<Map<Object, Object>> dataSets = inventory.getTestDataSet().getTestSets();
-        Object[][] table = new Object[dataSets.size() + 1][];
-        Map<Object, Object> firstDataSet = dataSets.get(0);
-        int index = 0;
-        Object[] header = new String[firstDataSet.size()];
-
-        for (Object key : firstDataSet.keySet()) {
-            header[index++] = key;
+        // the cache only holds suites generated from scratch
+        return consume(inventory.snapshot(), cache != null && isPristine(inventory));
+    }
+
+    /**
+     * @return true if no molecule of the inventory is used yet: molecules are
+     * only ever marked as used, so a reset copy with as many unused molecules
+     * has the same ones
+     */
+    private static boolean isPristine(IInventory inventory) {
+        IInventory pristine = inventory.snapshot();
+        pristine.reset();
+        return pristine.getUnusedMoleculeCount() == inventory.getUnusedMoleculeCount();
+    }
+
+    private static Data consume(IInventory inventory) {
+        return consume(inventory, true);
+    }
+
+    /**
+     * Generates as generatePairwise does, but uses up the coverage state of
+     * the inventory itself instead of a snapshot of it: for the inventories
+     * built here, which nobody else holds
+     *
+     * @param cacheable false if the inventory may have molecules used, its
+     * test sets are then neither looked up in the cache nor put into it
+     */
+    private static Data consume(IInventory inventory, boolean cacheable) {
+        TestSetCache cache = DataGenerator.cache;
+
+        if (cache == null || !cacheable) {
+            return generate(inventory);
+        }
+
+        TestDataSet dataSet = new TestDataSet(inventory, inventory.getScenario());
+        String key = cache.key(inventory, dataSet);
+        List<int[]> testSets = cache.get(key);
+
+        if (testSets == null) {
+            dataSet.buildTestCases();
+            checkComplete(dataSet);
+            testSets = dataSet.getRawTestSets();
+            cache.put(key, testSets);
         }
-        table[0] = header;
-        index = 1;
 
-        for (Map<Object, Object> dataSet : dataSets) {
+        return toData(dataSet, testSets.iterator());
+    }
 
-            Object[] row = new Object[dataSet.size()];
+    /**
+     * Generates only the rows the existing ones leave to cover, never cached
+     *
+     * @param existingRows the rows of an existing suite, one value per
+     * parameter set each
+     * @return the new rows
+     */
+    public static Data generatePairwise(IInventory inventory, Object[][] existingRows) {
+        Scenario scenario = inventory.getScenario();
+        List<int[][]> rows = new ArrayList<>(existingRows.length);
 
-            for (int i = 0; i < header.length; i++) {
-                row[i] = dataSet.get(header[i]);
-            }
+        // a row holding a value repeated in its column captures the molecules of every occurrence
+        for (Object[] row : existingRows) {
+            rows.add(scenario.encodeAll(row));
+        }
+
+        IInventory snapshot = inventory.snapshot();
+        snapshot.captureMolecules(rows);
+        return generate(snapshot);
+    }
+
+    /**
+     * @param data the table of values, the first row holds the names
+     * @param existingRows the rows of an existing suite over the same table
+     * @return the rows to add to the suite to cover all the pairs
+     */
+    public static Data generateIncrementalTable(Object[][] data, Object[][] existingRows) {
+        IInventory inventory = PairwiseInventoryFactory.generateTableInventory(data);
+        return generatePairwise(inventory, existingRows);
+    }
+
+    private static Data generate(IInventory inventory) {
+        TestDataSet dataSet = new TestDataSet(inventory, inventory.getScenario());
+        Data data = toData(dataSet, dataSet.iterator());
+        checkComplete(dataSet);
+        return data;
+    }
+
+    /**
+     * A generation only stops early when its thread is interrupted. The
+     * partial test sets are never returned, cached nor memoized, and the
+     * interrupt flag is left set for the caller
+     */
+    private static void checkComplete(TestDataSet dataSet) {
+
+        if (!dataSet.isComplete()) {
+            throw new IllegalStateException("Interrupted while generating the test sets");
+        }
+    }
+
+    private static Data toData(TestDataSet dataSet, Iterator<int[]> testSets) {
+        List<Object[]> table = new ArrayList<>();
+        table.add(dataSet.getNames());
 
-            table[index++] = row;
+        while (testSets.hasNext()) {
+            table.add(dataSet.getValues(testSets.next()));
         }
-        return new Data(table);
+        return new Data(table.toArray(new Object[table.size()][]));
     }
 
-    public static Data generatePairwiseMatrix(Object[][] data) {
-        IInventory inventory = PairwiseInventoryFactory.generateMatrixInventory(data);
-        return generatePairwise(inventory).withHeader(false);
+    public static Data generatePairwiseMatrix(final Object[][] data) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateMatrixInventory(data);
+                return consume(inventory).withHeader(false);
+            }
+        }, "generatePairwiseMatrix(Object[][])", data);
     }
 
-    public static Data generatePairwiseRotatedMatrix(Object[][] data) {
-        IInventory inventory = PairwiseInventoryFactory.generateRotatedMatrixInventory(data);
-        return generatePairwise(inventory).withHeader(false);
+    public static Data generatePairwiseRotatedMatrix(final Object[][] data) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateRotatedMatrixInventory(data);
+                return consume(inventory).withHeader(false);
+            }
+        }, "generatePairwiseRotatedMatrix(Object[][])", data);
     }
 
     public static Data geberatePairwiseTable(InputStream data) throws IOException {
         IInventory inventory = PairwiseInventoryFactory.generateParameterInventory(data);
-        return generatePairwise(inventory);
+        return consume(inventory);
     }
 
-    public static Data generatePairwiseTable(String data) {
-        IInventory inventory = PairwiseInventoryFactory.generateParameterInventory(data);
-        return generatePairwise(inventory);
+    public static Data generatePairwiseTable(final String data) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateParameterInventory(data);
+                return consume(inventory);
+            }
+        }, "generatePairwiseTable(String)", data);
     }
 
-    public static Data generatePairwiseTable(Object[][] data) {
-        IInventory inventory = PairwiseInventoryFactory.generateTableInventory(data);
-        return generatePairwise(inventory);
+    public static Data generatePairwiseTable(final Object[][] data) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateTableInventory(data);
+                return consume(inventory);
+            }
+        }, "generatePairwiseTable(Object[][])", data);
     }
 
-    public static Data generatePairwiseTable(Object[] names, Object[][] data) {
-        IInventory inventory = PairwiseInventoryFactory.generateTableInventory(names, data);
-        return generatePairwise(inventory);
+    public static Data generatePairwiseTable(final Object[] names, final Object[][] data) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateTableInventory(names, data);
+                return consume(inventory);
+            }
+        }, "generatePairwiseTable(Object[], Object[][])", names, data);
+    }
+
+    /**
+     * @param constraints the rules the rows must obey, e.g. which values
+     * exclude each other
+     */
+    public static Data generatePairwiseTable(Object[][] data, Constraints constraints) {
+        return generatePairwiseTable(data[0], ArrayUtils.remove(data, 0), constraints);
     }
 
-    public static Data generatePairwiseRotatedTable(Object[][] data) {
-        IInventory inventory = PairwiseInventoryFactory.generateRotatedTableInventory(data);
-        return generatePairwise(inventory);
+    public static Data generatePairwiseTable(Object[] names, Object[][] data, Constraints constraints) {
+        IInventory inventory = PairwiseInventoryFactory.generateTableInventory(names, data, 2, constraints);
+        return consume(inventory);
     }
 
-    public static Data generatePairwiseRotatedTable(Object[] names, Object[][] data) {
-        IInventory inventory = PairwiseInventoryFactory.generateRotatedTableInventory(names, data);
-        return generatePairwise(inventory);
+    public static Data generateNWiseTable(Object[][] data, int atomsPerMolecule) {
+        return generateNWiseTable(data[0], ArrayUtils.remove(data, 0), atomsPerMolecule);
+    }
+
+    public static Data generateNWiseTable(final Object[] names, final Object[][] data, final int atomsPerMolecule) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateTableInventory(names, data, atomsPerMolecule);
+                return consume(inventory);
+            }
+        }, "generateNWiseTable(Object[], Object[][], int)", names, data, atomsPerMolecule);
+    }
+
+    public static Data generatePairwiseRotatedTable(final Object[][] data) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateRotatedTableInventory(data);
+                return consume(inventory);
+            }
+        }, "generatePairwiseRotatedTable(Object[][])", data);
+    }
+
+    public static Data generatePairwiseRotatedTable(final Object[] names, final Object[][] data) {
+        return memoize(new Supplier<Data>() {
+            @Override
+            public Data get() {
+                IInventory inventory = PairwiseInventoryFactory.generateRotatedTableInventory(names, data);
+                return consume(inventory);
+            }
+        }, "generatePairwiseRotatedTable(Object[], Object[][])", names, data);
     }
 
     public static Data generatePairwiseTable(File csv) throws IOException {
         return DataGenerator.generatePairwiseTable(csv, "\\|");
     }
 
+    /**
+     * @param delimiter a regex, as for String.split; a single character, plain
+     * or escaped, is split on without regex by a memory-mapped reader
+     */
     public static Data generatePairwiseTable(File csv, String delimiter) throws IOException {
+        int literal = getLiteral(delimiter);
 
-        List<String[]> data = new ArrayList();
-
-        for (String line : Files.readAllLines(csv.toPath())) {
-            data.add(line.split(delimiter));
+        if (literal >= 0) {
+            CsvReader reader = new CsvReader((char) literal).read(csv);
+            IInventory inventory = PairwiseInventoryFactory.generateColumnInventory(reader.getNames(), reader.getColumns(), 2);
+            return consume(inventory);
         }
 
-        String[][] table = new String[data.size()][];
+        Pattern pattern = Pattern.compile(delimiter);
+        List<String> lines = Files.readAllLines(csv.toPath());
+        String[][] table = new String[lines.size()][];
 
-        for (int i = 0; i < data.size(); i++) {
-            table[i] = data.get(i);
+        for (int i = 0; i < table.length; i++) {
+            table[i] = pattern.split(lines.get(i));
         }
 
         return DataGenerator.generatePairwiseTable(table);
     }
 
+    /**
+     * @return the character the regex matches if it is a single literal
+     * character, -1 otherwise
+     */
+    private static int getLiteral(String regex) {
+
+        if (regex.length() == 1 && ".$|()[]{}^?*+\\".indexOf(regex.charAt(0)) < 0) {
+            return regex.charAt(0);
+        }
+
+        if (regex.length() == 2 && regex.charAt(0) == '\\' && !Character.isLetterOrDigit(regex.charAt(1))) {
+            return regex.charAt(1);
+        }
+        return -1;
+    }
+
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 A.Solyankin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qantium.data;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the Data generated for the last maxEntries distinct arguments, the
+ * arguments compared by content, arrays included. Callers asking for the same
+ * arguments at the same time wait for a single generation. The Data are
+ * immutable, so all the callers can share them
+ */
+final class DataMemo {
+
+    private final Map<Key, FutureTask<Data>> entries;
+
+    DataMemo(final int maxEntries) {
+        this.entries = new LinkedHashMap<Key, FutureTask<Data>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, FutureTask<Data>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    Data get(final Supplier<Data> generator, Object... arguments) {
+        Key key = new Key(arguments);
+        FutureTask<Data> task;
+        boolean generating = false;
+
+        synchronized (entries) {
+            task = entries.get(key);
+
+            if (task == null) {
+                task = new FutureTask<Data>(new Callable<Data>() {
+                    @Override
+                    public Data call() {
+                        return generator.get().toImmutable();
+                    }
+                });
+                entries.put(key, task);
+                generating = true;
+            }
+        }
+
+        // generate outside of the lock, so other arguments are not held up
+        if (generating) {
+            task.run();
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the data", ex);
+        } catch (ExecutionException ex) {
+
+            synchronized (entries) {
+                entries.remove(key, task);
+            }
+
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * A copy of the arguments, so the caller changing its arrays afterwards
+     * doesn't change the key
+     */
+    private static final class Key {
+
+        private final Object[] arguments;
+        private final int hash;
+
+        private Key(Object[] arguments) {
+            this.arguments = (Object[]) copy(arguments);
+            this.hash = Arrays.deepHashCode(this.arguments);
+        }
+
+        private static Object copy(Object argument) {
+
+            if (argument instanceof Object[]) {
+                Object[] array = ((Object[]) argument).clone();
+
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = copy(array[i]);
+                }
+                return array;
+            }
+            return argument;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.deepEquals(arguments, ((Key) o).arguments);
+        }
+    }
+}
@@ -24,15 +24,34 @@ import java.util.regex.Pattern;
  */
 public class RegexpParcer implements DataHandler {
 
+    private static final String[] NO_GROUPS = new String[0];
+
     private final String regexp;
+    private final Pattern pattern;
+
+    /**
+     * Matchers keep state between find() and group(), so every thread reuses
+     * its own one
+     */
+    private final ThreadLocal<Matcher> matcher = new ThreadLocal<Matcher>() {
+        @Override
+        protected Matcher initialValue() {
+            return pattern.matcher("");
+        }
+    };
 
     public RegexpParcer(String regexp) {
         this.regexp = regexp;
+        this.pattern = Pattern.compile(regexp);
     }
 
     public String getRegexp() {
         return regexp;
     }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
     
     public static <T> T[] parce(String regexp, T data) {
         return new RegexpParcer(regexp).handle(data);
@@ -40,23 +59,32 @@ public class RegexpParcer implements DataHandler {
 
     @Override
     public <T> T[] handle(T data) {
-        Pattern pattern = Pattern.compile(regexp);
-        Matcher matcher = pattern.matcher(data.toString());
-        
-        String[] groups;
-
-        if (matcher.find()) {
-            
-            int groupCount = matcher.groupCount();
-            
-            groups = new String[groupCount];
-
-            for (int i = 1; i <= groupCount; i++) {
-                groups[i - 1] = matcher.group(i);
-            }
-        } else {
-            groups = new String[]{data.toString()};
+        String cell = data.toString();
+        Matcher matcher = this.matcher.get().reset(cell);
+
+        if (!matcher.find()) {
+            return cast(new String[]{cell});
+        }
+
+        int groupCount = matcher.groupCount();
+
+        if (groupCount == 0) {
+            return cast(NO_GROUPS);
         }
-        return (T[]) groups;
+
+        String[] groups = new String[groupCount];
+
+        for (int i = 1; i <= groupCount; i++) {
+            groups[i - 1] = matcher.group(i);
+        }
+        return cast(groups);
+    }
+
+    /**
+     * The cells are always split into strings, whatever T the caller asks for
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T[] cast(String[] values) {
+        return (T[]) values;
     }
 }
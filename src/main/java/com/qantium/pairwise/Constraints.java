@@ -0,0 +1,276 @@
+package com.qantium.pairwise;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Rules the values of a test set must obey, over the values of named parameter sets:
+ *
+ * new Constraints()
+ *     .excludes("OS", "Linux", "Browser", "IE")         -- no test set holds both Linux and IE
+ *     .requires("Browser", "Safari", "OS", "Mac")       -- Safari only goes with Mac
+ *     .ifThen("OS", "Mac", "Browser", "Safari", "Chrome") -- Mac only goes with Safari or Chrome
+ *
+ * The rules are compiled per Scenario into the values every value conflicts with, one bitset per value: molecules
+ * holding two conflicting values are never built, and no test set holds two conflicting values. Conflicts implied by
+ * the rules are derived too, e.g. with "a requires b" and "b excludes c", a conflicts with c
+ */
+public class Constraints {
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * The value excludes all the given values of the other parameter set
+     */
+    public Constraints excludes(String parameterSet, Object value, String otherParameterSet, Object... otherValues) {
+        rules.add(new Rule(parameterSet, value, otherParameterSet, otherValues, false));
+        return this;
+    }
+
+    /**
+     * The value only goes with the given value of the other parameter set
+     */
+    public Constraints requires(String parameterSet, Object value, String otherParameterSet, Object otherValue) {
+        return ifThen(parameterSet, value, otherParameterSet, otherValue);
+    }
+
+    /**
+     * If a test set holds the value, it holds one of the given values of the
+     * other parameter set
+     */
+    public Constraints ifThen(String parameterSet, Object value, String otherParameterSet, Object... allowedValues) {
+        rules.add(new Rule(parameterSet, value, otherParameterSet, allowedValues, true));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @return the rules, one per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+
+        for (Rule rule : rules) {
+            text.append(rule).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return for every value index of the scenario the value indexes it can't
+     * be in a test set with, null for the values without conflicts
+     */
+    public BitSet[] compile(Scenario scenario) {
+        BitSet[] conflicts = new BitSet[scenario.getParameterValuesCount()];
+
+        for (Rule rule : rules) {
+            int[] parameterSet = find(scenario, rule.parameterSet);
+            int[] otherParameterSet = find(scenario, rule.otherParameterSet);
+
+            if (parameterSet == otherParameterSet) {
+                throw new IllegalArgumentException("A rule must relate two different parameter sets, but was " + rule.parameterSet);
+            }
+
+            for (Object otherValue : rule.otherValues) {
+                indexOf(scenario, rule.otherParameterSet, otherParameterSet, otherValue);
+            }
+
+            int value = indexOf(scenario, rule.parameterSet, parameterSet, rule.value);
+
+            for (; value <= parameterSet[parameterSet.length - 1]; value++) {
+
+                if (!Objects.equals(scenario.getValue(value), rule.value)) {
+                    continue;
+                }
+
+                for (int other : otherParameterSet) {
+
+                    if (contains(rule.otherValues, scenario.getValue(other)) != rule.allowed) {
+                        conflict(conflicts, value, other);
+                    }
+                }
+            }
+        }
+
+        propagate(scenario, conflicts);
+        return conflicts;
+    }
+
+    /**
+     * Adds the conflicts implied by the others until there is nothing left to
+     * add: a value conflicts with c if every value it can still go with in some
+     * parameter set conflicts with c
+     */
+    private static void propagate(Scenario scenario, BitSet[] conflicts) {
+        int[][] legalValues = scenario.getLegalValues();
+        int[] positions = scenario.getParameterPositions();
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int value = 0; value < conflicts.length; value++) {
+
+                if (conflicts[value] == null) {
+                    continue;
+                }
+
+                for (int[] parameterSet : legalValues) {
+
+                    if (parameterSet.length == 0 || positions[parameterSet[0]] == positions[value]) {
+                        continue;
+                    }
+
+                    int firstConflict = conflicts[value].nextSetBit(parameterSet[0]);
+
+                    // nothing to derive while the value goes with the whole parameter set
+                    if (firstConflict < 0 || firstConflict > parameterSet[parameterSet.length - 1]) {
+                        continue;
+                    }
+
+                    for (int[] otherParameterSet : legalValues) {
+
+                        if (otherParameterSet == parameterSet || otherParameterSet.length == 0 || positions[otherParameterSet[0]] == positions[value]) {
+                            continue;
+                        }
+
+                        for (int other : otherParameterSet) {
+
+                            if (!conflicts[value].get(other) && isExcluded(conflicts, value, parameterSet, other)) {
+                                conflict(conflicts, value, other);
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int[] parameterSet : legalValues) {
+            boolean excluded = parameterSet.length > 0;
+
+            for (int value : parameterSet) {
+                excluded &= isDead(conflicts, value, legalValues);
+            }
+
+            if (excluded) {
+                throw new IllegalArgumentException("No legal test set: every value of parameter set "
+                        + scenario.getParameterName(positions[parameterSet[0]]) + " is excluded");
+            }
+        }
+    }
+
+    /**
+     * @return true if every value of the parameter set the value can go with
+     * conflicts with other
+     */
+    private static boolean isExcluded(BitSet[] conflicts, int value, int[] parameterSet, int other) {
+
+        for (int candidate : parameterSet) {
+
+            if (!conflicts[value].get(candidate) && (conflicts[candidate] == null || !conflicts[candidate].get(other))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the value conflicts with every value of some other
+     * parameter set, so no test set can hold it
+     */
+    private static boolean isDead(BitSet[] conflicts, int value, int[][] legalValues) {
+
+        if (conflicts[value] == null) {
+            return false;
+        }
+
+        for (int[] parameterSet : legalValues) {
+
+            if (parameterSet.length > 0 && conflicts[value].nextClearBit(parameterSet[0]) > parameterSet[parameterSet.length - 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void conflict(BitSet[] conflicts, int a, int b) {
+
+        if (conflicts[a] == null) {
+            conflicts[a] = new BitSet(conflicts.length);
+        }
+
+        if (conflicts[b] == null) {
+            conflicts[b] = new BitSet(conflicts.length);
+        }
+        conflicts[a].set(b);
+        conflicts[b].set(a);
+    }
+
+    private static int[] find(Scenario scenario, String name) {
+
+        for (int i = 0; i < scenario.getParameterSetCount(); i++) {
+
+            if (Objects.equals(scenario.getParameterName(i), name)) {
+                return scenario.getLegalValues()[i];
+            }
+        }
+        throw new IllegalArgumentException("No parameter set " + name);
+    }
+
+    private static int indexOf(Scenario scenario, String name, int[] parameterSet, Object value) {
+
+        for (int index : parameterSet) {
+
+            if (Objects.equals(scenario.getValue(index), value)) {
+                return index;
+            }
+        }
+        throw new IllegalArgumentException("No value " + value + " in parameter set " + name);
+    }
+
+    private static boolean contains(Object[] values, Object value) {
+
+        for (Object candidate : values) {
+
+            if (Objects.equals(candidate, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Rule {
+
+        private final String parameterSet;
+        private final Object value;
+        private final String otherParameterSet;
+        private final Object[] otherValues;
+
+        /**
+         * true if otherValues are the only values allowed, false if they are
+         * excluded
+         */
+        private final boolean allowed;
+
+        private Rule(String parameterSet, Object value, String otherParameterSet, Object[] otherValues, boolean allowed) {
+            this.parameterSet = parameterSet;
+            this.value = value;
+            this.otherParameterSet = otherParameterSet;
+            this.otherValues = otherValues;
+            this.allowed = allowed;
+        }
+
+        @Override
+        public String toString() {
+            return parameterSet + "=" + value + (allowed ? " only with " : " excludes ") + otherParameterSet + "=" + Arrays.toString(otherValues);
+        }
+    }
+}
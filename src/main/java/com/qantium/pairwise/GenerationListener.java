@@ -0,0 +1,50 @@
+package com.qantium.pairwise;
+
+/**
+ * Gets told where the time of the generation goes, see {@link GenerationMetrics}. Set on an inventory, it is shared by
+ * its snapshots and by the TestDataSets running on them; without one, nothing is measured at all
+ */
+public interface GenerationListener {
+
+    /**
+     * Told when buildMolecules is done, or when the listener is set if the
+     * molecules were built before, e.g. by PairwiseInventoryFactory
+     *
+     * @param inventory the inventory whose molecules were built
+     * @param nanos the time buildMolecules took
+     */
+    void moleculesBuilt(IInventory inventory, long nanos);
+
+    /**
+     * Called on the generating thread before every iteration looking for a
+     * test set, the next test set added closes it
+     */
+    void testSetStarted();
+
+    /**
+     * @param molecule the best unused molecule
+     * @param nanos the time getBestMolecule took
+     */
+    void bestMoleculePicked(int[] molecule, long nanos);
+
+    /**
+     * @param candidates the number of candidate test sets built
+     * @param nanos the time building all of them took
+     */
+    void candidatesBuilt(int candidates, long nanos);
+
+    /**
+     * @param testSet the test set whose molecules were marked as used
+     * @param nanos the time updateAllCounts took
+     */
+    void countsUpdated(int[] testSet, long nanos);
+
+    /**
+     * Called once per test set added, on the thread testSetStarted was called
+     * on
+     *
+     * @param testSet the test set added
+     * @param unusedMolecules the number of molecules still to capture
+     */
+    void testSetAdded(int[] testSet, int unusedMolecules);
+}
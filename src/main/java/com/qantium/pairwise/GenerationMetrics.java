@@ -0,0 +1,142 @@
+package com.qantium.pairwise;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Sums up what a GenerationListener gets told: the time spent in every step of the algorithm, the candidates built,
+ * the bytes allocated and the number of unused molecules left after every iteration. Can be shared by several
+ * generations at once
+ */
+public class GenerationMetrics implements GenerationListener {
+
+    private long buildNanos;
+    private long bestMoleculeNanos;
+    private long candidatesNanos;
+    private long updateNanos;
+    private long candidates;
+    private long allocatedBytes;
+    private int iterations;
+    private int[] unusedMolecules = new int[64];
+
+    /**
+     * The bytes the generating thread had allocated when its iteration
+     * started, the generations sharing the metrics run on several threads
+     */
+    private final ThreadLocal<Long> allocatedAtStart = new ThreadLocal<Long>();
+
+    @Override
+    public synchronized void moleculesBuilt(IInventory inventory, long nanos) {
+        buildNanos += nanos;
+    }
+
+    @Override
+    public void testSetStarted() {
+        allocatedAtStart.set(Allocation.getAllocatedBytes());
+    }
+
+    @Override
+    public synchronized void bestMoleculePicked(int[] molecule, long nanos) {
+        bestMoleculeNanos += nanos;
+    }
+
+    @Override
+    public synchronized void candidatesBuilt(int candidates, long nanos) {
+        this.candidates += candidates;
+        candidatesNanos += nanos;
+    }
+
+    @Override
+    public synchronized void countsUpdated(int[] testSet, long nanos) {
+        updateNanos += nanos;
+    }
+
+    @Override
+    public synchronized void testSetAdded(int[] testSet, int unusedMolecules) {
+        Long start = allocatedAtStart.get();
+        long allocatedBytes = start == null || start < 0 ? -1 : Allocation.getAllocatedBytes() - start;
+
+        if (iterations == this.unusedMolecules.length) {
+            this.unusedMolecules = Arrays.copyOf(this.unusedMolecules, iterations * 2);
+        }
+        this.unusedMolecules[iterations++] = unusedMolecules;
+
+        if (allocatedBytes > 0) {
+            this.allocatedBytes += allocatedBytes;
+        }
+    }
+
+    public synchronized long getBuildNanos() {
+        return buildNanos;
+    }
+
+    public synchronized long getBestMoleculeNanos() {
+        return bestMoleculeNanos;
+    }
+
+    public synchronized long getCandidatesNanos() {
+        return candidatesNanos;
+    }
+
+    public synchronized long getUpdateNanos() {
+        return updateNanos;
+    }
+
+    public synchronized long getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * @return the bytes allocated by the generating threads, the threads
+     * building candidates in a pool excluded; 0 if the JVM can't tell
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the number of unused molecules left after every iteration
+     */
+    public synchronized int[] getUnusedMolecules() {
+        return Arrays.copyOf(unusedMolecules, iterations);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("build=%.1fms bestMolecule=%.1fms candidates=%d in %.1fms updateCounts=%.1fms iterations=%d allocated=%dKB",
+                buildNanos / 1e6, bestMoleculeNanos / 1e6, candidates, candidatesNanos / 1e6, updateNanos / 1e6, iterations, allocatedBytes / 1024);
+    }
+
+    /**
+     * Looks the thread bean up once, on the first measure. The com.sun API is
+     * only touched where the JVM provides it
+     */
+    private static final class Allocation {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+        private static final boolean SUPPORTED = isSupported();
+
+        private static boolean isSupported() {
+
+            try {
+                return THREADS instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+            } catch (LinkageError ex) {
+                return false;
+            }
+        }
+
+        /**
+         * @return the bytes allocated by the current thread so far, -1 if the
+         * JVM can't tell
+         */
+        private static long getAllocatedBytes() {
+            return SUPPORTED ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+        }
+    }
+}
@@ -1,14 +1,51 @@
 package com.qantium.pairwise;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface IInventory {
     /**
      * Returns the entire set of Test Cases this inventory has produced, by running through "the algorithm" after all the Parameter Sets
-     * have been added
+     * have been added. The algorithm runs on a {@link #snapshot()}, so this inventory can be used again, even concurrently
      * @return
      */
-    TestDataSet getTestDataSet();
+    default TestDataSet getTestDataSet() {
+        TestDataSet dataSet = new TestDataSet(snapshot(), getScenario());
+        dataSet.buildTestCases();
+        return dataSet;
+    }
+
+    /**
+     * Returns a new inventory sharing the scenario and the molecule index of this one, with its own copy of the current coverage
+     * state (which molecules are unused, the counts and weights). The copy can be used up by "the algorithm" without touching
+     * this inventory. Copies can be taken concurrently as long as nobody updates this inventory at the same time
+     * @return
+     */
+    IInventory snapshot();
+
+    /**
+     * Marks every molecule as unused again, as right after {@link #buildMolecules()}
+     */
+    default void reset() {
+        buildMolecules();
+    }
+
+    /**
+     * Streams the Test Cases of "the algorithm": each one is generated when it is asked for and is not kept afterwards
+     * @return the test sets as value indexes of the scenario, see {@link TestDataSet#iterator()}
+     */
+    default Iterator<int[]> getTestSetIterator() {
+        return new TestDataSet(snapshot(), getScenario()).iterator();
+    }
+
+    /**
+     * Same as {@link #getTestSetIterator()}, with every test set turned into its values
+     * @return
+     */
+    default Stream<Object[]> getTestCaseStream() {
+        return new TestDataSet(snapshot(), getScenario()).stream();
+    }
 
     /**
      * Returns the number of unused pairs still outstanding for the given test set (set of parameter indexes). If your test set is [2, 4, 7] as
@@ -19,6 +56,41 @@ public interface IInventory {
      */
     int numberMoleculesCaptured(int[] testSet);
 
+    /**
+     * Returns the number of unused molecules the value would capture if it was added to a partially built test set. Only the
+     * first count positions of the test set are filled, their indexes are listed in positions
+     * @param value
+     * @param testSet
+     * @param positions
+     * @param count
+     * @return
+     */
+    default int numberMoleculesCaptured(int value, int[] testSet, int[] positions, int count) {
+        int moleculesCapturedCount = 0;
+
+        for (int p = 0; p < count; ++p) {
+
+            if (isUnusedMolecule(value, testSet[positions[p]])) {
+                ++moleculesCapturedCount;
+            }
+        }
+        return moleculesCapturedCount;
+    }
+
+    /**
+     * Same as {@link #numberMoleculesCaptured(int, int[], int[], int)}, given also the values placed so far as a mask over the
+     * value indexes, value v being bit v % 64 of word v / 64, which the inventory may count against instead
+     * @param value
+     * @param placedValues
+     * @param testSet
+     * @param positions
+     * @param count
+     * @return
+     */
+    default int numberMoleculesCaptured(int value, long[] placedValues, int[] testSet, int[] positions, int count) {
+        return numberMoleculesCaptured(value, testSet, positions, count);
+    }
+
     /**
      * Pick "best" unused molecule -- the pair with the highest number of unused values
      * @return
@@ -31,6 +103,60 @@ public interface IInventory {
      */
     void updateAllCounts(int[] bestTestSet);
 
+    /**
+     * Marks the molecules of all the test sets as used at once, e.g. to start from the coverage of an existing suite. The
+     * counts and weights are rebuilt once at the end, so this is much cheaper than updateAllCounts for every test set, which
+     * is all the default does
+     * @param testSets test sets as value indexes, ordered by parameter set, see {@link Scenario#encode(Object[])}
+     */
+    default void updateAllCounts(Iterable<int[]> testSets) {
+
+        for (int[] testSet : testSets) {
+            updateAllCounts(testSet);
+        }
+    }
+
+    /**
+     * Marks as used the molecules of rows holding any number of values per parameter set, e.g. the rows of an existing
+     * suite repeating a value in a column: every molecule whose atoms are all among the values of their parameter sets.
+     * The molecules are marked one by one instead of expanding the rows into every test set they stand for. The default
+     * excludes the pairs of every two parameter sets
+     * @param rows for every row, the value indexes of every parameter set, see {@link Scenario#encodeAll(Object[])}
+     */
+    default void captureMolecules(Iterable<int[][]> rows) {
+
+        for (int[][] indexes : rows) {
+
+            for (int i = 0; i < indexes.length - 1; i++) {
+
+                for (int j = i + 1; j < indexes.length; j++) {
+
+                    for (int a : indexes[i]) {
+
+                        for (int b : indexes[j]) {
+                            excludeMolecule(new int[]{a, b});
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the molecules a complete test set holds, used or not, one per combination of parameter sets in the
+     * same order for every test set: two test sets differing in one value have different ids only for the molecules holding it
+     * @param testSet one value index per parameter set
+     * @return ids in the range [0, getMoleculeCount())
+     */
+    int[] getMoleculeIds(int[] testSet);
+
+    /**
+     * Marks the molecule as used without any test set capturing it, for the molecules the constraints of the scenario leave
+     * no legal test set for
+     * @param molecule the atoms of the molecule
+     */
+    void excludeMolecule(int[] molecule);
+
     /**
      * Process the "used" sets to determine which sets have not been used yet
      */
@@ -41,10 +167,31 @@ public interface IInventory {
      */
     void buildMolecules();
 
+    /**
+     * Tells whether the pair of values [a, b] still has to be captured by a test set. The order of the values does not matter,
+     * values of the same parameter set never form a pair. For molecules of more atoms, whether some unused molecule holds both
+     * @param a
+     * @param b
+     * @return
+     */
+    default boolean isUnusedMolecule(int a, int b) {
+        return getUnusedMoleculesSearch()[Math.min(a, b)][Math.max(a, b)] == 1;
+    }
+
+    /**
+     * @deprecated the search matrix is no longer stored, this builds a [valuesCount][valuesCount] copy of it on every call.
+     * Use {@link #isUnusedMolecule(int, int)} instead
+     * @return
+     */
+    @Deprecated
     int[][] getUnusedMoleculesSearch();
 
     List<Molecule> getUnusedMolecules();
 
+    default int getUnusedMoleculeCount() {
+        return getUnusedMolecules().size();
+    }
+
     /**
      * Determine the number of pairs for this input set
      * @return
@@ -61,6 +208,25 @@ public interface IInventory {
      */
     long getFullCombinationCount();
 
+    /**
+     * @param listener told about the time spent building the molecules and generating test sets, null to measure nothing;
+     * snapshots share it. The default ignores it: {@link TestDataSet#withListener(GenerationListener)} times the
+     * generation itself
+     */
+    default void setListener(GenerationListener listener) {
+    }
+
+    default GenerationListener getListener() {
+        return null;
+    }
+
+    /**
+     * @return the number of atoms per molecule, 2 for pairwise
+     */
+    default int getStrength() {
+        return 2;
+    }
+
     public abstract void setScenario(Scenario scenario);
 
     Scenario getScenario();
@@ -0,0 +1,165 @@
+package com.qantium.pairwise;
+
+import java.util.Arrays;
+
+/**
+ * A bucket queue of ids keyed by their weight. Weights only ever go down while test sets are generated, so the bucket
+ * holding the heaviest id can only move forward: picking the heaviest id, removing an id and lowering its weight are all
+ * done in (amortized) constant time. PairwiseInventory queues its values by unused count: the weight of a molecule is
+ * the sum of the weights of its atoms, so walking the values from the heaviest down finds the best molecule
+ *
+ * Every bucket is a doubly linked list threaded through the next/previous arrays, bucket 0 holds the ids with the
+ * highest initial weight, bucket k the ids which are k lighter
+ */
+public final class MoleculeQueue {
+
+    private static final int NONE = -1;
+    private static final int REMOVED = -2;
+
+    private final int[] next;
+    private final int[] previous;
+    private final int[] weights;
+    private final int maxWeight;
+    private int[] heads;
+    private int top;
+    private int size;
+
+    /**
+     * @param capacity the number of ids, ids are in the range [0, capacity)
+     * @param maxWeight the highest weight an id can be added with
+     */
+    public MoleculeQueue(int capacity, int maxWeight) {
+        this.next = new int[capacity];
+        Arrays.fill(next, REMOVED);
+        this.previous = new int[capacity];
+        this.weights = new int[capacity];
+        this.maxWeight = maxWeight;
+        this.heads = new int[16];
+        Arrays.fill(heads, NONE);
+    }
+
+    /**
+     * Creates an independent copy of the queue
+     */
+    public MoleculeQueue(MoleculeQueue queue) {
+        this.next = queue.next.clone();
+        this.previous = queue.previous.clone();
+        this.weights = queue.weights.clone();
+        this.maxWeight = queue.maxWeight;
+        this.heads = queue.heads.clone();
+        this.top = queue.top;
+        this.size = queue.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getWeight(int id) {
+        return weights[id];
+    }
+
+    public void add(int id, int weight) {
+        if (weight > maxWeight) {
+            throw new IllegalArgumentException("Weight " + weight + " is bigger than the max weight " + maxWeight);
+        }
+        weights[id] = weight;
+        link(id);
+        size++;
+    }
+
+    public void remove(int id) {
+        unlink(id);
+        next[id] = REMOVED;
+        size--;
+    }
+
+    public boolean contains(int id) {
+        return next[id] != REMOVED;
+    }
+
+    /**
+     * Lowers the weight of a queued id
+     *
+     * @param id
+     * @param delta the value to subtract from the weight, must not be negative
+     */
+    public void decrease(int id, int delta) {
+        if (delta != 0) {
+            unlink(id);
+            weights[id] -= delta;
+            link(id);
+        }
+    }
+
+    /**
+     * @return an id with the highest weight, or -1 if the queue is empty
+     */
+    public int peek() {
+        if (size == 0) {
+            return NONE;
+        }
+
+        while (heads[top] == NONE) {
+            top++;
+        }
+        return heads[top];
+    }
+
+    /**
+     * Walks the queue from the heaviest id down: ids of equal weight come in no particular order
+     *
+     * @param id a queued id
+     * @return the queued id following it, or -1 if it is the lightest one
+     */
+    public int following(int id) {
+        if (next[id] != NONE) {
+            return next[id];
+        }
+
+        for (int bucket = maxWeight - weights[id] + 1; bucket < heads.length; bucket++) {
+            if (heads[bucket] != NONE) {
+                return heads[bucket];
+            }
+        }
+        return NONE;
+    }
+
+    private void link(int id) {
+        int bucket = maxWeight - weights[id];
+
+        if (bucket >= heads.length) {
+            int length = heads.length;
+            heads = Arrays.copyOf(heads, Math.max(length * 2, bucket + 1));
+            Arrays.fill(heads, length, heads.length, NONE);
+        }
+
+        int head = heads[bucket];
+        next[id] = head;
+        previous[id] = NONE;
+
+        if (head != NONE) {
+            previous[head] = id;
+        }
+        heads[bucket] = id;
+
+        if (bucket < top) {
+            top = bucket;
+        }
+    }
+
+    private void unlink(int id) {
+        int before = previous[id];
+        int after = next[id];
+
+        if (before != NONE) {
+            next[before] = after;
+        } else {
+            heads[maxWeight - weights[id]] = after;
+        }
+
+        if (after != NONE) {
+            previous[after] = before;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.qantium.pairwise;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A live, read-only list of the molecules whose ids are set in a bitset (or of all ids when there is no bitset).
+ * Molecules are decoded on demand, so nothing is stored per molecule. Iterating the view is linear, but get on a bitset
+ * view walks the bits from the start
+ */
+abstract class MoleculeView extends AbstractList<Molecule> {
+
+    private final BitSet ids;
+
+    /**
+     * @param ids the ids of the molecules in the view, or null to view every
+     * id in the range [0, size())
+     */
+    MoleculeView(BitSet ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * @return a new Molecule holding the atoms of the given id
+     */
+    protected abstract Molecule getMolecule(int id);
+
+    @Override
+    public Molecule get(int index) {
+
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        if (ids == null) {
+            return getMolecule(index);
+        }
+
+        int id = ids.nextSetBit(0);
+
+        for (int i = 0; i < index; i++) {
+            id = ids.nextSetBit(id + 1);
+        }
+        return getMolecule(id);
+    }
+
+    @Override
+    public Iterator<Molecule> iterator() {
+
+        if (ids == null) {
+            return super.iterator();
+        }
+
+        return new Iterator<Molecule>() {
+            private int id = ids.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return id >= 0;
+            }
+
+            @Override
+            public Molecule next() {
+
+                if (id < 0) {
+                    throw new NoSuchElementException();
+                }
+
+                Molecule molecule = getMolecule(id);
+                id = ids.nextSetBit(id + 1);
+                return molecule;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,600 @@
+package com.qantium.pairwise;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An inventory of molecules of n atoms (order-3, order-4, order-n combinations). The number of molecules grows with the
+ * power of n, so molecules are never materialized: every molecule is an id of the TupleIndex and the unused molecules are
+ * a single bit each. The Molecule lists are lazy views decoding ids on demand
+ *
+ * The counts of unused molecules per value are exact: a value loses one count per molecule it is part of the moment that
+ * molecule gets captured by a test set
+ */
+public class NWiseInventory implements IInventory {
+
+    private final int strength;
+    private Scenario scenario;
+    private TupleIndex tupleIndex;
+    private BitSet unusedMoleculesSearch;
+    private int unusedMoleculesCount;
+    private int[] unusedParameterIndexCounts;
+
+    /**
+     * The first id that still may be unused: molecules are only ever captured,
+     * so everything before it is used already
+     */
+    private int firstUnusedId;
+
+    private GenerationListener listener;
+
+    /**
+     * The time buildMolecules took with no listener to tell, told to the first
+     * one set
+     */
+    private long unreportedBuildNanos = -1;
+
+    /**
+     * @param strength the number of atoms per molecule
+     */
+    public NWiseInventory(int strength) {
+
+        if (strength < 2) {
+            throw new IllegalArgumentException("Molecules must have at least 2 atoms, but was " + strength);
+        }
+        this.strength = strength;
+    }
+
+    /**
+     * Shares the scenario and the tuple index of the inventory, copies its
+     * coverage state
+     */
+    protected NWiseInventory(NWiseInventory inventory) {
+        this.strength = inventory.strength;
+        this.scenario = inventory.scenario;
+        this.tupleIndex = inventory.tupleIndex;
+        this.unusedMoleculesSearch = (BitSet) inventory.unusedMoleculesSearch.clone();
+        this.unusedMoleculesCount = inventory.unusedMoleculesCount;
+        this.unusedParameterIndexCounts = inventory.unusedParameterIndexCounts.clone();
+        this.firstUnusedId = inventory.firstUnusedId;
+        this.listener = inventory.listener;
+        this.unreportedBuildNanos = inventory.unreportedBuildNanos;
+    }
+
+    @Override
+    public NWiseInventory snapshot() {
+        return new NWiseInventory(this);
+    }
+
+    @Override
+    public int getStrength() {
+        return strength;
+    }
+
+    @Override
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    @Override
+    public void setScenario(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    @Override
+    public GenerationListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void setListener(GenerationListener listener) {
+        this.listener = listener;
+
+        if (listener != null && unreportedBuildNanos >= 0) {
+            listener.moleculesBuilt(this, unreportedBuildNanos);
+            unreportedBuildNanos = -1;
+        }
+    }
+
+    public TupleIndex getTupleIndex() {
+        return tupleIndex;
+    }
+
+    public int[] getUnusedParameterIndexCounts() {
+        return unusedParameterIndexCounts;
+    }
+
+    @Override
+    public long getFullCombinationCount() {
+        long count = 1;
+
+        for (ParameterSet<?> set : scenario.getParameterSets()) {
+            count *= set.getParameterValues().size();
+        }
+        return count;
+    }
+
+    @Override
+    public void buildMolecules() {
+        long start = System.nanoTime();
+
+        scenario.updateParameterPositions();
+        tupleIndex = new TupleIndex(scenario, strength);
+        unusedMoleculesSearch = new BitSet(tupleIndex.getCount());
+        reset();
+
+        if (listener != null) {
+            listener.moleculesBuilt(this, System.nanoTime() - start);
+        } else {
+            unreportedBuildNanos = System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void reset() {
+        unusedMoleculesSearch.set(0, tupleIndex.getCount());
+        unusedMoleculesCount = tupleIndex.getCount();
+        firstUnusedId = 0;
+        pruneIllegalMolecules();
+        processUnusedValues();
+    }
+
+    /**
+     * Illegal molecules, those holding two conflicting values, are never
+     * unused: no test set may capture them
+     */
+    protected void pruneIllegalMolecules() {
+
+        if (scenario.getConflicts() == null) {
+            return;
+        }
+
+        int[] parameters = new int[strength];
+        int[] atoms = new int[strength];
+
+        for (int rank = 0; rank < tupleIndex.getCombinationsCount(); rank++) {
+            int blockStart = tupleIndex.getBlockStart(rank);
+            int blockEnd = tupleIndex.getBlockStart(rank + 1);
+            tupleIndex.getCombination(rank, parameters);
+
+            for (int id = blockStart; id < blockEnd; id++) {
+                tupleIndex.decode(id - blockStart, parameters, atoms);
+
+                if (isIllegal(atoms)) {
+                    unusedMoleculesSearch.clear(id);
+                    --unusedMoleculesCount;
+                }
+            }
+        }
+    }
+
+    protected boolean isIllegal(int[] atoms) {
+
+        for (int i = 0; i < atoms.length - 1; i++) {
+
+            for (int j = i + 1; j < atoms.length; j++) {
+
+                if (scenario.isForbidden(atoms[i], atoms[j])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void processUnusedValues() {
+        int[] unusedCounts = new int[scenario.getParameterValuesCount()];
+        int[] parameters = new int[strength];
+        int[] atoms = new int[strength];
+
+        for (int rank = 0; rank < tupleIndex.getCombinationsCount(); rank++) {
+            int blockStart = tupleIndex.getBlockStart(rank);
+            int blockEnd = tupleIndex.getBlockStart(rank + 1);
+            tupleIndex.getCombination(rank, parameters);
+
+            for (int id = unusedMoleculesSearch.nextSetBit(blockStart); id >= 0 && id < blockEnd; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+                tupleIndex.decode(id - blockStart, parameters, atoms);
+
+                for (int atom : atoms) {
+                    ++unusedCounts[atom];
+                }
+            }
+        }
+        this.unusedParameterIndexCounts = unusedCounts;
+    }
+
+    @Override
+    public int initMoleculeCount() {
+        return tupleIndex.getCount();
+    }
+
+    @Override
+    public int getMoleculeCount() {
+        return tupleIndex.getCount();
+    }
+
+    @Override
+    public int getUnusedMoleculeCount() {
+        return unusedMoleculesCount;
+    }
+
+    /**
+     * @return true if some unused molecule holds both values
+     */
+    @Override
+    public boolean isUnusedMolecule(int a, int b) {
+        int[] positions = scenario.getParameterPositions();
+
+        if (positions[a] == positions[b]) {
+            return false;
+        }
+
+        int[] parameters = new int[strength];
+        int[] atoms = new int[strength];
+
+        for (int rank = 0; rank < tupleIndex.getCombinationsCount(); rank++) {
+            tupleIndex.getCombination(rank, parameters);
+
+            if (!contains(parameters, positions[a]) || !contains(parameters, positions[b])) {
+                continue;
+            }
+
+            int blockStart = tupleIndex.getBlockStart(rank);
+            int blockEnd = tupleIndex.getBlockStart(rank + 1);
+
+            for (int id = unusedMoleculesSearch.nextSetBit(blockStart); id >= 0 && id < blockEnd; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+                tupleIndex.decode(id - blockStart, parameters, atoms);
+
+                if (contains(atoms, a) && contains(atoms, b)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 1 at [a][b], a < b, if some unused molecule holds both values
+     */
+    @Override
+    @Deprecated
+    public int[][] getUnusedMoleculesSearch() {
+        int[][] search = new int[scenario.getParameterValuesCount()][scenario.getParameterValuesCount()];
+        int[] atoms = new int[strength];
+
+        for (int id = unusedMoleculesSearch.nextSetBit(0); id >= 0; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+            tupleIndex.getAtoms(id, atoms);
+
+            for (int i = 0; i < strength - 1; i++) {
+
+                for (int j = i + 1; j < strength; j++) {
+                    search[atoms[i]][atoms[j]] = 1;
+                }
+            }
+        }
+        return search;
+    }
+
+    private static boolean contains(int[] array, int value) {
+
+        for (int element : array) {
+
+            if (element == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the first unused molecule, then the heaviest unused molecule of the
+     * same combination of parameter sets
+     */
+    @Override
+    public int[] getBestMolecule() {
+        firstUnusedId = unusedMoleculesSearch.nextSetBit(firstUnusedId);
+
+        int[] atoms = new int[strength];
+        tupleIndex.getAtoms(firstUnusedId, atoms);
+
+        int[] parameters = new int[strength];
+
+        for (int i = 0; i < strength; i++) {
+            parameters[i] = scenario.getParameterPositions()[atoms[i]];
+        }
+
+        int blockStart = firstUnusedId - localId(atoms, parameters);
+        int blockEnd = blockStart + blockSize(parameters);
+        int[] best = atoms.clone();
+        int bestWeight = getWeight(best);
+
+        for (int id = unusedMoleculesSearch.nextSetBit(firstUnusedId + 1); id >= 0 && id < blockEnd; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+            tupleIndex.decode(id - blockStart, parameters, atoms);
+            int weight = getWeight(atoms);
+
+            if (weight > bestWeight) {
+                bestWeight = weight;
+                System.arraycopy(atoms, 0, best, 0, strength);
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void updateAllCounts(int[] bestTestSet) {
+        int[] positions = firstCombination(strength);
+        int[] atoms = new int[strength];
+
+        do {
+            for (int i = 0; i < strength; i++) {
+                atoms[i] = bestTestSet[positions[i]];
+            }
+
+            int id = tupleIndex.id(atoms);
+
+            if (unusedMoleculesSearch.get(id)) {
+                unusedMoleculesSearch.clear(id);
+                --unusedMoleculesCount;
+
+                for (int atom : atoms) {
+                    --unusedParameterIndexCounts[atom];
+                }
+            }
+        } while (nextCombination(positions, bestTestSet.length));
+    }
+
+    @Override
+    public void updateAllCounts(Iterable<int[]> testSets) {
+        int[] atoms = new int[strength];
+
+        for (int[] testSet : testSets) {
+            int[] positions = firstCombination(strength);
+
+            do {
+                for (int i = 0; i < strength; i++) {
+                    atoms[i] = testSet[positions[i]];
+                }
+
+                int id = tupleIndex.id(atoms);
+
+                if (unusedMoleculesSearch.get(id)) {
+                    unusedMoleculesSearch.clear(id);
+                    --unusedMoleculesCount;
+                }
+            } while (nextCombination(positions, testSet.length));
+        }
+
+        processUnusedValues();
+    }
+
+    @Override
+    public void captureMolecules(Iterable<int[][]> rows) {
+        int[] atoms = new int[strength];
+        int[] choices = new int[strength];
+
+        for (int[][] indexes : rows) {
+            int[] positions = firstCombination(strength);
+
+            do {
+                // every molecule of the parameter sets at the positions, the first atom changing fastest
+                Arrays.fill(choices, 0);
+                int changed = 0;
+
+                while (changed < strength) {
+                    for (int i = 0; i < strength; i++) {
+                        atoms[i] = indexes[positions[i]][choices[i]];
+                    }
+
+                    int id = tupleIndex.id(atoms);
+
+                    if (unusedMoleculesSearch.get(id)) {
+                        unusedMoleculesSearch.clear(id);
+                        --unusedMoleculesCount;
+                    }
+
+                    for (changed = 0; changed < strength && ++choices[changed] == indexes[positions[changed]].length; changed++) {
+                        choices[changed] = 0;
+                    }
+                }
+            } while (nextCombination(positions, indexes.length));
+        }
+
+        processUnusedValues();
+    }
+
+    @Override
+    public int[] getMoleculeIds(int[] testSet) {
+        int[] ids = new int[tupleIndex.getCombinationsCount()];
+        int[] positions = firstCombination(strength);
+        int[] atoms = new int[strength];
+        int k = 0;
+
+        do {
+            for (int i = 0; i < strength; i++) {
+                atoms[i] = testSet[positions[i]];
+            }
+            ids[k++] = tupleIndex.id(atoms);
+        } while (nextCombination(positions, testSet.length));
+
+        return ids;
+    }
+
+    @Override
+    public void excludeMolecule(int[] molecule) {
+        int[] atoms = molecule.clone();
+        sort(atoms);
+        int id = tupleIndex.id(atoms);
+
+        if (unusedMoleculesSearch.get(id)) {
+            unusedMoleculesSearch.clear(id);
+            --unusedMoleculesCount;
+
+            for (int atom : atoms) {
+                --unusedParameterIndexCounts[atom];
+            }
+        }
+    }
+
+    @Override
+    public int numberMoleculesCaptured(int[] testSet) {
+        int moleculesCapturedCount = 0;
+        int[] positions = firstCombination(strength);
+        int[] atoms = new int[strength];
+
+        do {
+            for (int i = 0; i < strength; i++) {
+                atoms[i] = testSet[positions[i]];
+            }
+
+            if (unusedMoleculesSearch.get(tupleIndex.id(atoms))) {
+                ++moleculesCapturedCount;
+            }
+        } while (nextCombination(positions, testSet.length));
+
+        return moleculesCapturedCount;
+    }
+
+    @Override
+    public int numberMoleculesCaptured(int value, int[] testSet, int[] positions, int count) {
+
+        if (count < strength - 1) {
+            return 0;
+        }
+
+        int moleculesCapturedCount = 0;
+        int[] chosen = firstCombination(strength - 1);
+        int[] atoms = new int[strength];
+
+        do {
+            atoms[0] = value;
+
+            for (int i = 0; i < chosen.length; i++) {
+                atoms[i + 1] = testSet[positions[chosen[i]]];
+            }
+            sort(atoms);
+
+            if (unusedMoleculesSearch.get(tupleIndex.id(atoms))) {
+                ++moleculesCapturedCount;
+            }
+        } while (nextCombination(chosen, count));
+
+        return moleculesCapturedCount;
+    }
+
+    @Override
+    public List<Molecule> getAllMolecules() {
+        return new MoleculeView(null) {
+            @Override
+            protected Molecule getMolecule(int id) {
+                return NWiseInventory.this.getMolecule(id);
+            }
+
+            @Override
+            public int size() {
+                return getMoleculeCount();
+            }
+        };
+    }
+
+    @Override
+    public List<Molecule> getUnusedMolecules() {
+        return new MoleculeView(unusedMoleculesSearch) {
+            @Override
+            protected Molecule getMolecule(int id) {
+                return NWiseInventory.this.getMolecule(id);
+            }
+
+            @Override
+            public int size() {
+                return getUnusedMoleculeCount();
+            }
+        };
+    }
+
+    protected Molecule getMolecule(int id) {
+        int[] atoms = new int[strength];
+        tupleIndex.getAtoms(id, atoms);
+        Molecule molecule = new Molecule(atoms);
+        molecule.setIllegal(isIllegal(atoms));
+        return molecule;
+    }
+
+    protected int getWeight(int[] atoms) {
+        int weight = 0;
+
+        for (int atom : atoms) {
+            weight += unusedParameterIndexCounts[atom];
+        }
+        return weight;
+    }
+
+    private int localId(int[] atoms, int[] parameters) {
+        int local = 0;
+
+        for (int i = 0; i < strength; i++) {
+            int[] parameterSet = scenario.getLegalValues()[parameters[i]];
+            local = local * parameterSet.length + atoms[i] - parameterSet[0];
+        }
+        return local;
+    }
+
+    private int blockSize(int[] parameters) {
+        int size = 1;
+
+        for (int parameter : parameters) {
+            size *= scenario.getLegalValues()[parameter].length;
+        }
+        return size;
+    }
+
+    private static int[] firstCombination(int size) {
+        int[] combination = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            combination[i] = i;
+        }
+        return combination;
+    }
+
+    /**
+     * Moves to the next combination of indexes from [0, n) in lexicographic
+     * order
+     *
+     * @return false if the combination was the last one
+     */
+    private static boolean nextCombination(int[] combination, int n) {
+        int k = combination.length;
+        int i = k - 1;
+
+        while (i >= 0 && combination[i] == n - k + i) {
+            i--;
+        }
+
+        if (i < 0) {
+            return false;
+        }
+
+        combination[i]++;
+
+        for (int j = i + 1; j < k; j++) {
+            combination[j] = combination[j - 1] + 1;
+        }
+        return true;
+    }
+
+    private static void sort(int[] atoms) {
+
+        for (int i = 1; i < atoms.length; i++) {
+            int atom = atoms[i];
+            int j = i - 1;
+
+            while (j >= 0 && atoms[j] > atom) {
+                atoms[j + 1] = atoms[j];
+                j--;
+            }
+            atoms[j + 1] = atom;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.qantium.pairwise;
+
+/**
+ * Maps every legal pair of values [v1, v2] (v1 < v2, taken from different parameter sets) of a Scenario onto a dense
+ * integer id in the range [0, getCount()). Values of one parameter set occupy a contiguous range of the flattened
+ * "parameterValues" array, so all partners of v1 are simply the values following the end of its own parameter set
+ *
+ * Consider this parameter set: Param1: a, b, c Param2: i, j, k, l Param3: x, y
+ *
+ * partnerStart: [ 3, 3, 3, 7, 7, 7, 7, 9, 9 ] -- the first value which may be paired with a given value
+ * offsets: [ 0, 6, 12, 18, 20, 22, 24, 26, 26, 26 ] -- the id of the pair [v, partnerStart[v]]
+ *
+ * so the pair [b, k] = [1, 5] gets the id 6 + (5 - 3) = 8
+ */
+public final class PairIndex {
+
+    private final int[] partnerStart;
+    private final int[] offsets;
+
+    public PairIndex(Scenario scenario) {
+        int[][] legalValues = scenario.getLegalValues();
+        int valuesCount = scenario.getParameterValuesCount();
+
+        partnerStart = new int[valuesCount];
+        offsets = new int[valuesCount + 1];
+
+        for (int[] parameterSet : legalValues) {
+            int end = parameterSet.length > 0 ? parameterSet[parameterSet.length - 1] + 1 : 0;
+
+            for (int value : parameterSet) {
+                partnerStart[value] = end;
+            }
+        }
+
+        long offset = 0;
+
+        for (int value = 0; value < valuesCount; value++) {
+            offsets[value] = (int) offset;
+            offset += valuesCount - partnerStart[value];
+
+            if (offset > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Scenario is too large: more than " + Integer.MAX_VALUE + " pairs");
+            }
+        }
+        offsets[valuesCount] = (int) offset;
+    }
+
+    /**
+     * @return the number of legal pairs of this scenario
+     */
+    public int getCount() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @param v1 the smaller value index of the pair
+     * @param v2 the bigger value index of the pair, must belong to a later parameter set than v1
+     * @return the id of the pair
+     */
+    public int id(int v1, int v2) {
+        return offsets[v1] + v2 - partnerStart[v1];
+    }
+
+    /**
+     * @return the id of the pair, regardless of the order the values are passed in
+     */
+    public int idOf(int a, int b) {
+        return a < b ? id(a, b) : id(b, a);
+    }
+
+    /**
+     * @return true if both values belong to different parameter sets and so can form a pair
+     */
+    public boolean isPair(int a, int b) {
+        return a < b ? b >= partnerStart[a] : a >= partnerStart[b];
+    }
+
+    /**
+     * The pairs in which value is the smaller one have consecutive ids, from
+     * firstIdOf(value) inclusive to endIdOf(value) exclusive
+     */
+    public int firstIdOf(int value) {
+        return offsets[value];
+    }
+
+    public int endIdOf(int value) {
+        return offsets[value + 1];
+    }
+
+    /**
+     * @return the smaller value index of the pair with the given id
+     */
+    public int first(int id) {
+        int low = 0;
+        int high = offsets.length - 2;
+
+        // the last value whose offset is not greater than id (values of the last parameter set have no partners)
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (offsets[middle] <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the bigger value index of the pair with the given id
+     */
+    public int second(int id) {
+        int first = first(id);
+        return partnerStart[first] + id - offsets[first];
+    }
+}
@@ -1,6 +1,6 @@
 package com.qantium.pairwise;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -31,10 +31,69 @@ public class PairwiseInventory implements IInventory {
     //Parameter Set info and methods
     private Scenario scenario;
 
+    public PairwiseInventory() {
+    }
+
+    /**
+     * Shares the scenario and the pair index of the inventory, copies its
+     * coverage state
+     */
+    protected PairwiseInventory(PairwiseInventory inventory) {
+        this.scenario = inventory.scenario;
+        this.pairIndex = inventory.pairIndex;
+        this.unusedMoleculesSearch = (BitSet) inventory.unusedMoleculesSearch.clone();
+        this.unusedMoleculesCount = inventory.unusedMoleculesCount;
+        this.unusedParameterIndexCounts = inventory.unusedParameterIndexCounts.clone();
+
+        if (inventory.coverageRows != null) {
+            this.coverageRows = new long[inventory.coverageRows.length][];
+
+            for (int value = 0; value < coverageRows.length; value++) {
+                coverageRows[value] = inventory.coverageRows[value].clone();
+            }
+        }
+        this.valueQueue = new MoleculeQueue(inventory.valueQueue);
+        this.listener = inventory.listener;
+        this.unreportedBuildNanos = inventory.unreportedBuildNanos;
+    }
+
+    @Override
+    public PairwiseInventory snapshot() {
+        return new PairwiseInventory(this);
+    }
+
     public Scenario getScenario() {
         return scenario;
     }
 
+    @Override
+    public int getStrength() {
+        return 2;
+    }
+
+    private GenerationListener listener;
+
+    /**
+     * The time buildMolecules took with no listener to tell, told to the first
+     * one set
+     */
+    private long unreportedBuildNanos = -1;
+
+    @Override
+    public GenerationListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void setListener(GenerationListener listener) {
+        this.listener = listener;
+
+        if (listener != null && unreportedBuildNanos >= 0) {
+            listener.moleculesBuilt(this, unreportedBuildNanos);
+            unreportedBuildNanos = -1;
+        }
+    }
+
     @Override
     public void setScenario(Scenario scenario) {
         this.scenario = scenario;
@@ -58,16 +117,34 @@ public class PairwiseInventory implements IInventory {
 
     //********************************************
     // Molecule info and methods
-    private List<Molecule> allMolecules = null;
+    //
+    // A molecule is never stored as an object: it is the id PairIndex gives to
+    // its pair of atoms, and the Molecule lists are views decoding those ids
+
+    private PairIndex pairIndex = null;
+
+    public PairIndex getPairIndex() {
+        return pairIndex;
+    }
 
     @Override
     public List<Molecule> getAllMolecules() {
-        return allMolecules;
+        return new MoleculeView(null) {
+            @Override
+            protected Molecule getMolecule(int id) {
+                return PairwiseInventory.this.getMolecule(id);
+            }
+
+            @Override
+            public int size() {
+                return getMoleculeCount();
+            }
+        };
     }
 
     @Override
     public int getMoleculeCount() {
-        return allMolecules.size();
+        return pairIndex.getCount();
     }
 
     @Override
@@ -84,54 +161,138 @@ public class PairwiseInventory implements IInventory {
     }
 
     /**
-     * The molecules that have not been used yet. As they are used, they get
-     * removed from this list
+     * One bit per pair id (see PairIndex), set while the molecule has not been
+     * used yet
+     */
+    private BitSet unusedMoleculesSearch = null;
+
+    private int unusedMoleculesCount;
+
+    /**
+     * The values still part of an unused molecule ordered by their
+     * unusedParameterIndexCounts, the weight of a molecule being the sum of
+     * the counts of both atoms. A value is only taken out once a search for
+     * the best molecule finds it has no unused molecule left
      */
-    private List<Molecule> unusedMolecules = null;
+    private MoleculeQueue valueQueue = null;
 
+    /**
+     * Scenarios with more values than this keep no coverage rows: the rows
+     * take valuesCount * valuesCount bits
+     */
+    private static final int MAX_COVERAGE_VALUES = 8192;
+
+    /**
+     * For every value, the values it still forms an unused pair with, as a
+     * mask over the value indexes: the molecules a value would capture in a
+     * partial test set are counted by ANDing its row with the values placed
+     */
+    private long[][] coverageRows = null;
+
+    /**
+     * A view of the molecules that have not been used yet. As they are used,
+     * they disappear from it
+     */
     @Override
     public List<Molecule> getUnusedMolecules() {
-        return unusedMolecules;
+        return new MoleculeView(unusedMoleculesSearch) {
+            @Override
+            protected Molecule getMolecule(int id) {
+                return PairwiseInventory.this.getMolecule(id);
+            }
+
+            @Override
+            public int size() {
+                return getUnusedMoleculeCount();
+            }
+        };
+    }
+
+    @Override
+    public int getUnusedMoleculeCount() {
+        return unusedMoleculesCount;
     }
 
-    private int[][] unusedMoleculesSearch = null;
+    @Override
+    public boolean isUnusedMolecule(int a, int b) {
+        return pairIndex.isPair(a, b) && unusedMoleculesSearch.get(pairIndex.idOf(a, b));
+    }
 
     @Override
+    @Deprecated
     public int[][] getUnusedMoleculesSearch() {
-        return unusedMoleculesSearch;
+        int[][] search = new int[scenario.getParameterValuesCount()][scenario.getParameterValuesCount()];
+
+        for (int id = unusedMoleculesSearch.nextSetBit(0); id >= 0; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+            search[pairIndex.first(id)][pairIndex.second(id)] = 1;
+        }
+        return search;
+    }
+
+    protected Molecule getMolecule(int id) {
+        Molecule molecule = new Molecule(2);
+        molecule.setAtoms(new int[]{pairIndex.first(id), pairIndex.second(id)});
+        molecule.setIllegal(scenario.isForbidden(pairIndex.first(id), pairIndex.second(id)));
+        return molecule;
     }
 
-    ;
-    
     public void buildMolecules(int atomsPerMolecule) {
-        allMolecules = new ArrayList();
-        unusedMolecules = new ArrayList();          // List of pairs which have not yet been captured
-
-        unusedMoleculesSearch = new int[scenario.getParameterValuesCount()][scenario.getParameterValuesCount()];
-        for (int parameterSet = 0; parameterSet < scenario.getLegalValues().length - 1; parameterSet++) {
-            for (int nextParameterValue = parameterSet + 1; nextParameterValue < scenario.getLegalValues().length; nextParameterValue++) {
-                int[] firstRow = scenario.getLegalValues()[parameterSet];
-                int[] secondRow = scenario.getLegalValues()[nextParameterValue];
-
-                for (int aFirstRow : firstRow) {
-                    for (int aSecondRow : secondRow) {
-                        int[] atoms = new int[]{aFirstRow, aSecondRow};
-                        Molecule molecule = new Molecule(atomsPerMolecule);
-                        molecule.setAtoms(atoms);
-
-                        unusedMolecules.add(molecule);
-                        unusedMoleculesSearch[aFirstRow][aSecondRow] = 1;
-                        allMolecules.add(molecule);
-                    } // y
-                } // x
 
-            } // j
-        } // i
+        if (atomsPerMolecule != 2) {
+            throw new IllegalArgumentException("Pairwise inventory builds molecules of 2 atoms, use NWiseInventory for " + atomsPerMolecule);
+        }
+
+        long start = System.nanoTime();
 
         scenario.updateParameterPositions();
+        pairIndex = new PairIndex(scenario);
+        unusedMoleculesSearch = new BitSet(pairIndex.getCount());
+        reset();
+
+        if (listener != null) {
+            listener.moleculesBuilt(this, System.nanoTime() - start);
+        } else {
+            unreportedBuildNanos = System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void reset() {
+        // every pair is unused at the start
+        unusedMoleculesSearch.set(0, pairIndex.getCount());
+        unusedMoleculesCount = pairIndex.getCount();
+
+        pruneIllegalMolecules();
         processUnusedValues();
     }
 
+    /**
+     * Illegal molecules are never unused: no test set may capture them
+     */
+    protected void pruneIllegalMolecules() {
+        BitSet[] conflicts = scenario.getConflicts();
+
+        if (conflicts == null) {
+            return;
+        }
+
+        for (int a = 0; a < conflicts.length; a++) {
+
+            if (conflicts[a] == null) {
+                continue;
+            }
+
+            for (int b = conflicts[a].nextSetBit(a + 1); b >= 0; b = conflicts[a].nextSetBit(b + 1)) {
+                int id = pairIndex.id(a, b);
+
+                if (unusedMoleculesSearch.get(id)) {
+                    unusedMoleculesSearch.clear(id);
+                    --unusedMoleculesCount;
+                }
+            }
+        }
+    }
+
     @Override
     public void buildMolecules() {
         this.buildMolecules(2);
@@ -141,12 +302,65 @@ public class PairwiseInventory implements IInventory {
     public void processUnusedValues() {
         int[] unusedCounts = new int[scenario.getParameterValuesCount()];  // indexes are parameter values, cell values are counts of how many times the parameter value apperas in the analyzer.getUnusedPairs() collection
 
-        for (Molecule molecule : this.getAllMolecules()) {
-            ++unusedCounts[molecule.getAtoms()[0]];
-            ++unusedCounts[molecule.getAtoms()[1]];
+        for (int value = 0; value < unusedCounts.length; value++) {
+            int firstId = pairIndex.firstIdOf(value);
+            int endId = pairIndex.endIdOf(value);
+
+            if (firstId == endId) {
+                continue;
+            }
+
+            // the partners of a value are consecutive, so are the ids of its pairs
+            int firstPartner = pairIndex.second(firstId);
+
+            for (int id = unusedMoleculesSearch.nextSetBit(firstId); id >= 0 && id < endId; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+                ++unusedCounts[value];
+                ++unusedCounts[firstPartner + id - firstId];
+            }
         }
 
         this.unusedParameterIndexCounts = unusedCounts;
+        buildCoverageRows();
+        buildValueQueue();
+    }
+
+    protected void buildCoverageRows() {
+        int valuesCount = scenario.getParameterValuesCount();
+
+        if (valuesCount > MAX_COVERAGE_VALUES) {
+            coverageRows = null;
+            return;
+        }
+
+        coverageRows = new long[valuesCount][(valuesCount + 63) >>> 6];
+
+        for (int id = unusedMoleculesSearch.nextSetBit(0); id >= 0; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+            int v1 = pairIndex.first(id);
+            int v2 = pairIndex.second(id);
+            coverageRows[v1][v2 >>> 6] |= 1L << v2;
+            coverageRows[v2][v1 >>> 6] |= 1L << v1;
+        }
+    }
+
+    protected void buildValueQueue() {
+        int maxWeight = 0;
+
+        for (int count : unusedParameterIndexCounts) {
+            maxWeight = Math.max(maxWeight, count);
+        }
+
+        valueQueue = new MoleculeQueue(unusedParameterIndexCounts.length, maxWeight);
+
+        for (int value = 0; value < unusedParameterIndexCounts.length; value++) {
+
+            if (unusedParameterIndexCounts[value] > 0) {
+                valueQueue.add(value, unusedParameterIndexCounts[value]);
+            }
+        }
+    }
+
+    protected int getWeight(int v1, int v2) {
+        return unusedParameterIndexCounts[v1] + unusedParameterIndexCounts[v2];
     }
 
     @Override
@@ -161,44 +375,214 @@ public class PairwiseInventory implements IInventory {
                 --unusedParameterIndexCounts[v1];
                 --unusedParameterIndexCounts[v2];
 
-                this.getUnusedMoleculesSearch()[v1][v2] = 0;
+                removeUnusedMolecule(pairIndex.id(v1, v2));
+            } // j
+        } // i
+
+        //Every value of the test set lost one count per pair it is part of
+        for (int i = 0; i < scenario.getParameterSetCount(); ++i) {
+            decreaseWeight(bestTestSet[i], scenario.getParameterSetCount() - 1);
+        }
+    }
+
+    @Override
+    public void updateAllCounts(Iterable<int[]> testSets) {
+
+        for (int[] testSet : testSets) {
 
-                //Set up a new list of unused molecules, then assign it back to the unusedMolecules field--otherwise we get a ConcurrentModificationException
-                List<Molecule> tempUnusedMolecules = new ArrayList();
-                tempUnusedMolecules.addAll(this.getUnusedMolecules());
+            for (int i = 0; i < testSet.length - 1; ++i) {
 
-                for (Molecule molecule : this.getUnusedMolecules()) {
-                    int[] curr = molecule.getAtoms();
+                for (int j = i + 1; j < testSet.length; ++j) {
+                    int id = pairIndex.id(testSet[i], testSet[j]);
 
-                    //TODO this is a huge performance sink--we should build a map or lookup table and remove the molecules that way
-                    if (curr[0] == v1 && curr[1] == v2) {
-                        tempUnusedMolecules.remove(molecule);
+                    if (unusedMoleculesSearch.get(id)) {
+                        unusedMoleculesSearch.clear(id);
+                        --unusedMoleculesCount;
                     }
                 }
-                this.unusedMolecules = tempUnusedMolecules;
-            } // j
-        } // i
+            }
+        }
+
+        processUnusedValues();
+    }
+
+    @Override
+    public void captureMolecules(Iterable<int[][]> rows) {
+
+        for (int[][] indexes : rows) {
+
+            for (int i = 0; i < indexes.length - 1; ++i) {
+
+                for (int j = i + 1; j < indexes.length; ++j) {
+
+                    for (int v1 : indexes[i]) {
+
+                        for (int v2 : indexes[j]) {
+                            int id = pairIndex.id(v1, v2);
+
+                            if (unusedMoleculesSearch.get(id)) {
+                                unusedMoleculesSearch.clear(id);
+                                --unusedMoleculesCount;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        processUnusedValues();
+    }
+
+    @Override
+    public int[] getMoleculeIds(int[] testSet) {
+        int[] ids = new int[testSet.length * (testSet.length - 1) / 2];
+        int k = 0;
+
+        for (int i = 0; i < testSet.length - 1; ++i) {
+
+            for (int j = i + 1; j < testSet.length; ++j) {
+                ids[k++] = pairIndex.id(testSet[i], testSet[j]);
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void excludeMolecule(int[] molecule) {
+        int id = pairIndex.idOf(molecule[0], molecule[1]);
+
+        if (unusedMoleculesSearch.get(id)) {
+            removeUnusedMolecule(id);
+
+            for (int atom : molecule) {
+                --unusedParameterIndexCounts[atom];
+                decreaseWeight(atom, 1);
+            }
+        }
+    }
+
+    /**
+     * Keeps the queue in step with the unusedParameterIndexCounts of the value
+     */
+    protected void decreaseWeight(int value, int delta) {
+
+        if (valueQueue.contains(value)) {
+            valueQueue.decrease(value, delta);
+        }
+    }
+
+    /**
+     * Marks the molecule as used, in constant time
+     *
+     * @param id the pair id of the molecule
+     */
+    protected void removeUnusedMolecule(int id) {
+
+        if (!unusedMoleculesSearch.get(id)) {
+            return;
+        }
+
+        unusedMoleculesSearch.clear(id);
+        --unusedMoleculesCount;
+
+        if (coverageRows != null) {
+            int v1 = pairIndex.first(id);
+            int v2 = pairIndex.second(id);
+            coverageRows[v1][v2 >>> 6] &= ~(1L << v2);
+            coverageRows[v2][v1 >>> 6] &= ~(1L << v1);
+        }
     }
 
     @Override
     public int[] getBestMolecule() {
-        //Weight the pair by looping through the unused set
-        int bestWeight = 0;
-        int indexOfBestMolecule = 0;
+        int[] counts = unusedParameterIndexCounts;
+        int top = valueQueue.peek();
+        int bestA = -1;
+        int bestB = -1;
+        int bestWeight = Integer.MIN_VALUE;
+
+        //No partner weighs more than the top value, so once a value plus the top weight can't beat the best pair, nothing can
+        for (int a = top; a >= 0 && (bestA < 0 || counts[a] + counts[top] > bestWeight); ) {
+            int following = valueQueue.following(a);
+            int b = getBestPartner(a, bestA < 0 ? Integer.MIN_VALUE : bestWeight - counts[a], counts[top]);
+
+            if (b >= 0) {
+                bestA = a;
+                bestB = b;
+                bestWeight = counts[a] + counts[b];
+            } else if (bestA < 0) {
+                // any partner would have done, so the value has none left
+                valueQueue.remove(a);
+
+                if (a == top) {
+                    top = following;
+                }
+            }
+            a = following;
+        }
+        return new int[]{Math.min(bestA, bestB), Math.max(bestA, bestB)};
+    }
+
+    /**
+     * @param floor the count a partner has to exceed
+     * @param ceiling the count no partner can exceed, the search stops at the
+     * first partner reaching it
+     * @return the unused partner of the value with the highest count above the
+     * floor, or -1 if there is none
+     */
+    private int getBestPartner(int value, int floor, int ceiling) {
+        int[] counts = unusedParameterIndexCounts;
+        int best = -1;
+
+        if (coverageRows != null) {
+            long[] row = coverageRows[value];
 
-        for (int unusedMoleculeIndex = 0; unusedMoleculeIndex < this.getUnusedMolecules().size(); unusedMoleculeIndex++) {
-            int[] curr = this.getUnusedMolecules().get(unusedMoleculeIndex).getAtoms();
-            int weight = this.getUnusedParameterIndexCounts()[curr[0]] + this.getUnusedParameterIndexCounts()[curr[1]];
+            for (int word = 0; word < row.length; word++) {
 
-            //If the new pair is weighted more highly than the previous, make it the new "best"
-            if (weight > bestWeight) {
-                bestWeight = weight;
-                indexOfBestMolecule = unusedMoleculeIndex;
+                for (long bits = row[word]; bits != 0; bits &= bits - 1) {
+                    int partner = (word << 6) + Long.numberOfTrailingZeros(bits);
+
+                    if (counts[partner] > floor) {
+                        best = partner;
+                        floor = counts[partner];
+
+                        if (floor >= ceiling) {
+                            return best;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+
+        for (int smaller = 0; smaller < value && pairIndex.isPair(smaller, value); smaller++) {
+
+            if (counts[smaller] > floor && unusedMoleculesSearch.get(pairIndex.id(smaller, value))) {
+                best = smaller;
+                floor = counts[smaller];
+
+                if (floor >= ceiling) {
+                    return best;
+                }
             }
         }
 
-        //log and return the best pair
-        int[] best = this.getUnusedMolecules().get(indexOfBestMolecule).getAtoms();
+        int firstId = pairIndex.firstIdOf(value);
+        int endId = pairIndex.endIdOf(value);
+        int offset = firstId < endId ? pairIndex.second(firstId) - firstId : 0;
+
+        for (int id = unusedMoleculesSearch.nextSetBit(firstId); id >= 0 && id < endId; id = unusedMoleculesSearch.nextSetBit(id + 1)) {
+            int partner = offset + id;
+
+            if (counts[partner] > floor) {
+                best = partner;
+                floor = counts[partner];
+
+                if (floor >= ceiling) {
+                    return best;
+                }
+            }
+        }
         return best;
     }
 
@@ -210,7 +594,7 @@ public class PairwiseInventory implements IInventory {
 
             for (int j = i + 1; j <= testSet.length - 1; ++j) {
 
-                if (unusedMoleculesSearch[testSet[i]][testSet[j]] == 1) {
+                if (unusedMoleculesSearch.get(pairIndex.id(testSet[i], testSet[j]))) {
                     ++moleculesCapturedCount;
                 }
             }
@@ -219,9 +603,19 @@ public class PairwiseInventory implements IInventory {
     }
 
     @Override
-    public TestDataSet getTestDataSet() {
-        TestDataSet dataSet = new TestDataSet(this, scenario);
-        dataSet.buildTestCases();
-        return dataSet;
+    public int numberMoleculesCaptured(int value, long[] placedValues, int[] testSet, int[] positions, int count) {
+
+        // a word of the mask costs much less than looking up a pair, but the mask spans all the values
+        if (coverageRows == null || placedValues.length > 8 * count) {
+            return numberMoleculesCaptured(value, testSet, positions, count);
+        }
+
+        long[] row = coverageRows[value];
+        int moleculesCapturedCount = 0;
+
+        for (int word = 0; word < row.length; word++) {
+            moleculesCapturedCount += Long.bitCount(row[word] & placedValues[word]);
+        }
+        return moleculesCapturedCount;
     }
 }
@@ -40,18 +40,38 @@ public class PairwiseInventoryFactory {
     }
 
     public static IInventory generateTableInventory(Object[] names, Object[][] parameters) {
+        return generateTableInventory(names, parameters, 2);
+    }
+
+    public static IInventory generateTableInventory(Object[] names, Object[][] parameters, int atomsPerMolecule) {
+        return generateTableInventory(names, parameters, atomsPerMolecule, null);
+    }
+
+    /**
+     * @param constraints the rules the test sets must obey, may be null
+     */
+    public static IInventory generateTableInventory(Object[] names, Object[][] parameters, int atomsPerMolecule, Constraints constraints) {
 
         if (ArrayUtils.isEmpty(parameters)) {
             throw new IllegalArgumentException("Parameters table must have at least one string!");
         }
 
-        IInventory inventory = new PairwiseInventory();
+        IInventory inventory = createInventory(atomsPerMolecule);
         Scenario scenario = generateScenario(names, parameters);
+        scenario.setConstraints(constraints);
         inventory.setScenario(scenario);
         inventory.buildMolecules();
         return inventory;
     }
 
+    /**
+     * @param atomsPerMolecule 2 for pairwise, 3 for order-3 combinations, etc
+     * @return an empty inventory covering all the molecules of that many atoms
+     */
+    public static IInventory createInventory(int atomsPerMolecule) {
+        return atomsPerMolecule == 2 ? new PairwiseInventory() : new NWiseInventory(atomsPerMolecule);
+    }
+
     public static IInventory generateRotatedTableInventory(Object[] names, Object[][] data) {
         Object[][] table = getRotatedTable(data);
         return generateTableInventory(names, table);
@@ -93,7 +113,11 @@ public class PairwiseInventoryFactory {
      * @return the Scenario
      */
     public static IInventory generateParameterInventory(String contents) {
-        IInventory inventory = new PairwiseInventory();
+        return generateParameterInventory(contents, 2);
+    }
+
+    public static IInventory generateParameterInventory(String contents, int atomsPerMolecule) {
+        IInventory inventory = createInventory(atomsPerMolecule);
         Scenario scenario = generateScenario(contents);
         inventory.setScenario(scenario);
         inventory.buildMolecules();
@@ -101,12 +125,12 @@ public class PairwiseInventoryFactory {
     }
 
     public static Scenario generateScenario(String contents) {
-        Scenario scenario = new Scenario();
+        Scenario.Builder scenario = new Scenario.Builder();
 
         for (String line : StringUtils.split(contents, System.getProperty("line.separator"))) {
-            scenario.addParameterSet(processOneLine(line));
+            scenario.add(processOneLine(line));
         }
-        return scenario;
+        return scenario.build();
     }
 
     public static Scenario generateScenario(Object[] names, Object[][] parameters) {
@@ -120,6 +144,61 @@ public class PairwiseInventoryFactory {
             }
         }
 
+        names = completeNames(names, parametersCount);
+
+        Scenario.Builder scenario = new Scenario.Builder();
+
+        for (int colIndex = 0; colIndex < parametersCount; colIndex++) {
+            String name = names[colIndex].toString();
+            List parametersSet = new ArrayList();
+
+            for (int rowIndex = 0; rowIndex < parameters.length; rowIndex++) {
+
+                Object[] row = parameters[rowIndex];
+                Object parameter;
+
+                if (colIndex < row.length) {
+                    parameter = row[colIndex];
+                    parametersSet.add(parameter);
+                }
+            }
+            scenario.add(process(name, parametersSet));
+        }
+        return scenario.build();
+    }
+
+    /**
+     * Builds the scenario straight from the columns of a table, e.g. as a
+     * reader fills them, without a row-major copy to transpose
+     *
+     * @param names the names of the columns, null or missing ones are named
+     * by their index
+     * @param columns the values of every column
+     */
+    public static Scenario generateScenario(Object[] names, List<? extends List<?>> columns) {
+        names = completeNames(names, columns.size());
+        Scenario.Builder scenario = new Scenario.Builder();
+
+        for (int colIndex = 0; colIndex < columns.size(); colIndex++) {
+            Object name = names[colIndex];
+            scenario.add(process(name != null ? name.toString() : "[" + colIndex + "]", columns.get(colIndex)));
+        }
+        return scenario.build();
+    }
+
+    public static IInventory generateColumnInventory(Object[] names, List<? extends List<?>> columns, int atomsPerMolecule) {
+
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Parameters table must have at least one string!");
+        }
+
+        IInventory inventory = createInventory(atomsPerMolecule);
+        inventory.setScenario(generateScenario(names, columns));
+        inventory.buildMolecules();
+        return inventory;
+    }
+
+    private static Object[] completeNames(Object[] names, int parametersCount) {
         int index;
 
         if (names != null) {
@@ -150,25 +229,7 @@ public class PairwiseInventoryFactory {
             }
         }
 
-        Scenario scenario = new Scenario();
-
-        for (int colIndex = 0; colIndex < parametersCount; colIndex++) {
-            String name = names[colIndex].toString();
-            List parametersSet = new ArrayList();
-
-            for (int rowIndex = 0; rowIndex < parameters.length; rowIndex++) {
-
-                Object[] row = parameters[rowIndex];
-                Object parameter;
-
-                if (colIndex < row.length) {
-                    parameter = row[colIndex];
-                    parametersSet.add(parameter);
-                }
-            }
-            scenario.addParameterSet(process(name, parametersSet));
-        }
-        return scenario;
+        return names;
     }
 
     /**
@@ -196,14 +257,14 @@ public class PairwiseInventoryFactory {
         InputStreamReader isr = new InputStreamReader(stream);
         BufferedReader br = new BufferedReader(isr);
 
-        Scenario scenario = new Scenario();
+        Scenario.Builder scenario = new Scenario.Builder();
         String line;
         while ((line = br.readLine()) != null) {
-            scenario.addParameterSet(processOneLine(line));
+            scenario.add(processOneLine(line));
         }
 
         IInventory inventory = new PairwiseInventory();
-        inventory.setScenario(scenario);
+        inventory.setScenario(scenario.build());
         inventory.buildMolecules();
         return inventory;
     }
@@ -0,0 +1,18 @@
+package com.qantium.pairwise;
+
+/**
+ * Watches a TestDataSet generating test sets, and may stop it: the test sets generated so far are kept
+ */
+public interface ProgressMonitor {
+
+    /**
+     * Called after every test set added. Only the molecules unused when the generation started are counted, so the three
+     * counts always add up to the same total: the illegal molecules and those an existing suite captured are left out
+     *
+     * @param capturedMolecules the number of molecules the test sets capture so far
+     * @param excludedMolecules the number of molecules left uncaptured so far, as no legal test set can hold them
+     * @param unusedMolecules the number of molecules still to capture
+     * @return false to stop the generation
+     */
+    boolean progress(int capturedMolecules, int excludedMolecules, int unusedMolecules);
+}
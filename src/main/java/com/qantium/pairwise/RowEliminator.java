@@ -0,0 +1,240 @@
+package com.qantium.pairwise;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shrinks a suite of test sets without losing any molecule it captures. Every molecule has a counter of the test sets
+ * capturing it, so a test set whose molecules are all captured by others is dropped outright. Then, until the time is
+ * up, a test set is taken out and the molecules only it captured are moved into the others, one value at a time, never
+ * taking away the last capture of a molecule: the test set stays out if all of them find a place, else it is put back
+ */
+final class RowEliminator {
+
+    private final IInventory inventory;
+    private final Scenario scenario;
+    private final List<int[]> testSets;
+    private final List<int[]> ids;
+    private final int[] counts;
+    private final Random random;
+
+    // the changes made while moving the molecules of a test set, undone if they don't all find a place
+    private final List<Integer> undoRows = new ArrayList<>();
+    private final List<int[]> undoTestSets = new ArrayList<>();
+    private final List<int[]> undoIds = new ArrayList<>();
+
+    /**
+     * @param testSets the suite, shrunk in place
+     */
+    RowEliminator(IInventory inventory, List<int[]> testSets, Random random) {
+        this.inventory = inventory;
+        this.scenario = inventory.getScenario();
+        this.testSets = testSets;
+        this.ids = new ArrayList<>(testSets.size());
+        this.counts = new int[inventory.getMoleculeCount()];
+        this.random = random;
+
+        for (int[] testSet : testSets) {
+            int[] moleculeIds = inventory.getMoleculeIds(testSet);
+            ids.add(moleculeIds);
+
+            for (int id : moleculeIds) {
+                ++counts[id];
+            }
+        }
+    }
+
+    /**
+     * @param deadline the System.nanoTime to stop at
+     * @return the number of test sets removed
+     */
+    int run(long deadline) {
+        int size = testSets.size();
+        int failures = 0;
+        dropRedundant();
+
+        // give up once every test set had a couple of chances to go
+        while (testSets.size() > 1 && failures <= 2 * testSets.size()
+                && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+
+            if (eliminate(pickVictim(), deadline)) {
+                failures = 0;
+                dropRedundant();
+            } else {
+                ++failures;
+            }
+        }
+        return size - testSets.size();
+    }
+
+    /**
+     * Removes the test sets capturing no molecule on their own, the last
+     * generated first as they tend to capture the fewest
+     */
+    private void dropRedundant() {
+
+        for (int row = testSets.size() - 1; row >= 0; row--) {
+
+            if (countUnique(row) == 0) {
+
+                for (int id : ids.get(row)) {
+                    --counts[id];
+                }
+                remove(row);
+            }
+        }
+    }
+
+    /**
+     * @return the one of a few random test sets capturing the fewest molecules
+     * on its own
+     */
+    private int pickVictim() {
+        int best = -1;
+        int bestUnique = Integer.MAX_VALUE;
+
+        for (int i = 0; i < 4; i++) {
+            int row = random.nextInt(testSets.size());
+            int unique = countUnique(row);
+
+            if (unique < bestUnique) {
+                best = row;
+                bestUnique = unique;
+            }
+        }
+        return best;
+    }
+
+    private int countUnique(int row) {
+        int unique = 0;
+
+        for (int id : ids.get(row)) {
+
+            if (counts[id] == 1) {
+                ++unique;
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Takes the test set out and copies its values into the others until the
+     * molecules it leaves uncaptured are captured again
+     *
+     * @return true if the test set is gone, false if it was put back
+     */
+    private boolean eliminate(int victim, long deadline) {
+        int[] victimSet = testSets.get(victim);
+        BitSet orphans = new BitSet();
+
+        for (int id : ids.get(victim)) {
+
+            if (--counts[id] == 0) {
+                orphans.set(id);
+            }
+        }
+
+        undoRows.clear();
+        undoTestSets.clear();
+        undoIds.clear();
+        boolean moved = true;
+
+        while (!orphans.isEmpty() && moved && System.nanoTime() < deadline) {
+            moved = false;
+            int start = random.nextInt(testSets.size());
+
+            for (int i = 0; i < testSets.size() && !orphans.isEmpty(); i++) {
+                int row = (start + i) % testSets.size();
+
+                for (int position = 0; row != victim && position < victimSet.length && !orphans.isEmpty(); position++) {
+                    moved |= tryMove(row, position, victimSet[position], orphans);
+                }
+            }
+        }
+
+        if (orphans.isEmpty()) {
+            remove(victim);
+            return true;
+        }
+
+        for (int i = undoRows.size() - 1; i >= 0; i--) {
+            replace(undoRows.get(i), undoTestSets.get(i), undoIds.get(i));
+        }
+
+        for (int id : ids.get(victim)) {
+            ++counts[id];
+        }
+        return false;
+    }
+
+    /**
+     * Sets the value at the position of the test set if it captures an orphan
+     * molecule, keeps the test set legal and no molecule loses its last capture
+     */
+    private boolean tryMove(int row, int position, int value, BitSet orphans) {
+        int[] testSet = testSets.get(row);
+
+        if (testSet[position] == value) {
+            return false;
+        }
+
+        for (int i = 0; i < testSet.length; i++) {
+
+            if (i != position && scenario.isForbidden(value, testSet[i])) {
+                return false;
+            }
+        }
+
+        int[] candidate = testSet.clone();
+        candidate[position] = value;
+        int[] oldIds = ids.get(row);
+        int[] newIds = inventory.getMoleculeIds(candidate);
+        boolean captures = false;
+
+        for (int i = 0; i < newIds.length; i++) {
+
+            if (newIds[i] != oldIds[i]) {
+
+                if (counts[oldIds[i]] == 1) {
+                    return false;
+                }
+                captures |= orphans.get(newIds[i]);
+            }
+        }
+
+        if (!captures) {
+            return false;
+        }
+
+        undoRows.add(row);
+        undoTestSets.add(testSet);
+        undoIds.add(oldIds);
+        replace(row, candidate, newIds);
+
+        for (int id : newIds) {
+            orphans.clear(id);
+        }
+        return true;
+    }
+
+    private void replace(int row, int[] testSet, int[] newIds) {
+        int[] oldIds = ids.get(row);
+
+        for (int i = 0; i < newIds.length; i++) {
+
+            if (newIds[i] != oldIds[i]) {
+                --counts[oldIds[i]];
+                ++counts[newIds[i]];
+            }
+        }
+        testSets.set(row, testSet);
+        ids.set(row, newIds);
+    }
+
+    private void remove(int row) {
+        testSets.remove(row);
+        ids.remove(row);
+    }
+}
@@ -6,16 +6,107 @@ import java.util.*;
 
 public class Scenario {
 
-    private final List<ParameterSet<?>> parameterSets = new ArrayList();
+    /**
+     * Collects parameter sets and lays them out into a Scenario once: adding a
+     * parameter set to a Scenario rebuilds its metadata arrays, adding it to a
+     * Builder is constant time
+     */
+    public static class Builder {
+
+        private final List<ParameterSet<?>> parameterSets = new ArrayList<>();
+        private Constraints constraints;
+
+        public Builder add(ParameterSet<?> parameterSet) {
+            parameterSets.add(parameterSet);
+            return this;
+        }
+
+        public int size() {
+            return parameterSets.size();
+        }
+
+        public Builder withConstraints(Constraints constraints) {
+            this.constraints = constraints;
+            return this;
+        }
+
+        public Scenario build() {
+            Scenario scenario = new Scenario(parameterSets);
+            scenario.setConstraints(constraints);
+            return scenario;
+        }
+    }
+
+    private final List<ParameterSet<?>> parameterSets = new ArrayList<>();
+
+    public Scenario() {
+    }
+
+    /**
+     * Lays out all the metadata arrays in a single pass over the parameter
+     * sets
+     */
+    protected Scenario(List<ParameterSet<?>> parameterSets) {
+        int valuesCount = 0;
+
+        for (ParameterSet<?> parameterSet : parameterSets) {
+            valuesCount += parameterSet.getParameterValues().size();
+        }
+
+        this.parameterSets.addAll(parameterSets);
+        this.valueCodes = new int[valuesCount];
+        this.legalValues = new int[parameterSets.size()][];
+        this.parameterOffsets = new int[parameterSets.size() + 1];
+
+        for (int i = 0; i < parameterSets.size(); i++) {
+            int[] parameterValueIndexes = new int[parameterSets.get(i).getParameterValues().size()];
+
+            for (int j = 0; j < parameterValueIndexes.length; j++) {
+                parameterValueIndexes[j] = this.valuesCount + j;
+            }
+            legalValues[i] = parameterValueIndexes;
+            updateParameterValues(parameterSets.get(i));
+            parameterOffsets[i + 1] = this.valuesCount;
+        }
+        updateParameterPositions();
+    }
 
     public List<ParameterSet<?>> getParameterSets() {
         return parameterSets;
     }
     /**
-     * A flattened array representing the values of all the parameters in the
-     * set
+     * The distinct values of all the parameter sets, every value is stored
+     * once whatever the number of parameter sets holding it
+     */
+    private final List<Object> dictionary = new ArrayList<>();
+    private final Map<Object, Integer> dictionaryCodes = new HashMap<>();
+
+    /**
+     * The flattened values of all the parameter sets, as codes of the
+     * dictionary
+     */
+    private int[] valueCodes = new int[16];
+    private int valuesCount;
+
+    /**
+     * A flattened list representing the values of all the parameters in the
+     * set, decoded from the dictionary on access
      */
-    private final List<?> parameterValues = new ArrayList();
+    private final List<?> parameterValues = new AbstractList<Object>() {
+        @Override
+        public Object get(int index) {
+
+            if (index >= valuesCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + valuesCount);
+            }
+            return getValue(index);
+        }
+
+        @Override
+        public int size() {
+            return valuesCount;
+        }
+    };
 
     public ParameterSet<?> getParameterSet(int index) {
         return getParameterSets().get(index);
@@ -23,6 +114,12 @@ public class Scenario {
 
     private int[][] legalValues;
 
+    /**
+     * The index of the first value of every parameter set in the flattened
+     * values, followed by the count of values
+     */
+    private int[] parameterOffsets = {0};
+
     /**
      * An array of arrays representing the parameter set (x), and the index of
      * the flattened-out "parameterValues" array (y). See documentation at the
@@ -34,8 +131,53 @@ public class Scenario {
         return legalValues;
     }
 
+    private Constraints constraints;
+
+    /**
+     * The constraints compiled against the values of this scenario, see
+     * Constraints.compile
+     */
+    private BitSet[] conflicts;
+
+    public Constraints getConstraints() {
+        return constraints;
+    }
+
+    public void setConstraints(Constraints constraints) {
+        this.constraints = constraints;
+        this.conflicts = null;
+    }
+
+    /**
+     * Compiles the constraints on the first call
+     *
+     * @return for every value index the value indexes it can't be in a test
+     * set with, null entries for the values without conflicts; null if there
+     * are no constraints
+     */
+    public BitSet[] getConflicts() {
+
+        if (conflicts == null && constraints != null && !constraints.isEmpty()) {
+            conflicts = constraints.compile(this);
+        }
+        return conflicts;
+    }
+
+    /**
+     * @return true if no test set may hold both values
+     */
+    public boolean isForbidden(int a, int b) {
+        BitSet[] conflicts = getConflicts();
+        return conflicts != null && conflicts[a] != null && conflicts[a].get(b);
+    }
+
+    /**
+     * Copies the metadata arrays every time, use a Builder for scenarios with
+     * many parameter sets
+     */
     public void addParameterSet(ParameterSet<?> parameterSet) {
         parameterSets.add(parameterSet);
+        conflicts = null;
         int[] parameterValueIndexes = new int[parameterSet.getParameterValues().size()];
 
         //Rebuild the various metadata arrays each time (since we'll never know from here whether or not we're "done"--they can keep adding Parameter Sets)
@@ -44,12 +186,161 @@ public class Scenario {
         updateParameterPositions();
     }
 
+    /**
+     * @return the flattened values, read-only
+     */
     public List<?> getParameterValues() {
         return parameterValues;
     }
 
+    /**
+     * @param valueIndex the index of the value in the flattened values
+     */
+    public Object getValue(int valueIndex) {
+        return dictionary.get(valueCodes[valueIndex]);
+    }
+
+    /**
+     * @param valueIndex the index of the value in the flattened values
+     * @return the index of the value in the dictionary, equal values have equal
+     * codes
+     */
+    public int getValueCode(int valueIndex) {
+        return valueCodes[valueIndex];
+    }
+
+    /**
+     * @return the distinct values of the scenario, read-only
+     */
+    public List<?> getDictionary() {
+        return Collections.unmodifiableList(dictionary);
+    }
+
+    /**
+     * @return the index of the first value of the parameter set in the
+     * flattened values
+     */
+    public int getParameterOffset(int parameterSet) {
+        return parameterOffsets[parameterSet];
+    }
+
+    public String getParameterName(int parameterSet) {
+        return parameterSets.get(parameterSet).getName();
+    }
+
+    /**
+     * Decodes a test set kept as value indexes
+     *
+     * @param testSet the indexes of the values in the flattened values
+     * @return the values
+     */
+    public Object[] decode(int[] testSet) {
+        Object[] values = new Object[testSet.length];
+
+        for (int i = 0; i < testSet.length; i++) {
+            values[i] = dictionary.get(valueCodes[testSet[i]]);
+        }
+        return values;
+    }
+
+    /**
+     * Encodes a test set given as values, e.g. a row of an existing suite
+     *
+     * @param values one value per parameter set, in the order of the parameter
+     * sets
+     * @return the indexes of the values in the flattened values
+     */
+    public int[] encode(Object[] values) {
+
+        if (values.length != getParameterSetCount()) {
+            throw new IllegalArgumentException("Test set " + Arrays.toString(values) + " must have " + getParameterSetCount() + " values");
+        }
+
+        int[] testSet = new int[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            Integer code = dictionaryCodes.get(values[i]);
+            testSet[i] = code == null ? -1 : indexOf(i, code);
+
+            if (testSet[i] < 0) {
+                throw new IllegalArgumentException("No value " + values[i] + " in parameter set " + getParameterName(i));
+            }
+        }
+        return testSet;
+    }
+
+    /**
+     * Encodes a test set given as values like encode, to every index holding
+     * the value: a value repeated in a parameter set, e.g. the null padding
+     * the shorter columns of a table, has one index per occurrence
+     *
+     * @return for every parameter set, the indexes of the value in the
+     * flattened values
+     */
+    public int[][] encodeAll(Object[] values) {
+        int[] first = encode(values);
+        int[][] testSet = new int[values.length][];
+
+        for (int i = 0; i < values.length; i++) {
+            int count = 0;
+
+            for (int index : legalValues[i]) {
+
+                if (valueCodes[index] == valueCodes[first[i]]) {
+                    ++count;
+                }
+            }
+
+            testSet[i] = new int[count];
+            count = 0;
+
+            for (int index : legalValues[i]) {
+
+                if (valueCodes[index] == valueCodes[first[i]]) {
+                    testSet[i][count++] = index;
+                }
+            }
+        }
+        return testSet;
+    }
+
+    /**
+     * @return the index of the first value of the parameter set having the
+     * code, -1 if there is none
+     */
+    private int indexOf(int parameterSet, int code) {
+
+        for (int index : legalValues[parameterSet]) {
+
+            if (valueCodes[index] == code) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the values into the dictionary, equal values get the same code.
+     * The parameter set is only read, its values are left as they are
+     */
     protected void updateParameterValues(ParameterSet<?> parameterSet) {
-        parameterValues.addAll((Collection) parameterSet.getParameterValues());
+        List<?> values = parameterSet.getParameterValues();
+
+        if (valuesCount + values.size() > valueCodes.length) {
+            valueCodes = Arrays.copyOf(valueCodes, Math.max(valueCodes.length * 2, valuesCount + values.size()));
+        }
+
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            Integer code = dictionaryCodes.get(value);
+
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                dictionaryCodes.put(value, code);
+            }
+            valueCodes[valuesCount++] = code;
+        }
     }
 
     protected void updateLegalValues(ParameterSet<?> parameterSet, int[] parameterValueIndexes) {
@@ -58,6 +349,7 @@ public class Scenario {
             parameterValueIndexes[i] = j;
         }
         legalValues = ArrayUtils.addAll(legalValues, parameterValueIndexes);
+        parameterOffsets = ArrayUtils.add(parameterOffsets, getParameterValuesCount() + parameterValueIndexes.length);
     }
 
     /**
@@ -78,7 +370,7 @@ public class Scenario {
      * @return
      */
     public int getParameterValuesCount() {
-        return parameterValues.size();
+        return valuesCount;
     }
 
     /**
@@ -1,6 +1,14 @@
 package com.qantium.pairwise;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class TestDataSet {
 
@@ -12,44 +20,504 @@ public class TestDataSet {
         return testSets;
     }
 
-    private final Random random = new Random(2);
+    private long seed = 2;
+    private int poolSize = 1; // number of candidate testSet arrays to generate before picking one to add to testSets List
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private Random random = new Random(seed);
+    private long iteration;
+    private ProgressMonitor monitor;
+    private long timeoutNanos = -1;
+    private long optimizationNanos;
+    private int attempts = 1;
+    private volatile TestDataSet[] runs; // the generations of the attempts, while they run
+    private GenerationListener listener;
+    private long startNanos;
+    private int startUnusedMolecules;
+    private int excludedMolecules;
+    private boolean started;
+    private volatile boolean stopped;
 
     public TestDataSet(IInventory inventory, Scenario scenario) {
         this.inventory = inventory;
         this.scenario = scenario;
     }
 
-    public void buildTestCases() {
-        int poolSize = 1; // number of candidate testSet arrays to generate before picking one to add to testSets List
+    public long getSeed() {
+        return seed;
+    }
 
-        while (inventory.getUnusedMolecules().size() > 0) { //keep iterating until all pairs are used
-            // as long as there are unused pairs to account for
+    /**
+     * All the randomness of the algorithm is derived from this seed, so the
+     * same seed always produces the same test sets, whatever the pool
+     */
+    public TestDataSet withSeed(long seed) {
+        this.seed = seed;
+        this.random = new Random(seed);
+        return this;
+    }
 
-            int[][] candidateSets = new int[poolSize][scenario.getParameterSetCount()]; // holds candidate testSets
+    public int getPoolSize() {
+        return poolSize;
+    }
 
-            for (int candidate = 0; candidate < poolSize; ++candidate) {
+    /**
+     * @param poolSize number of candidate test sets to generate for every test
+     * set added; the one capturing the most unused molecules wins
+     */
+    public TestDataSet withPoolSize(int poolSize) {
 
-                int[] testSet = getSingleTestSet();
-                candidateSets[candidate] = testSet;  // add candidate testSet to candidateSets array
-            } // for each candidate testSet
-            int[] bestTestSet = determineBestCandidateSet(candidateSets);
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1, but was " + poolSize);
+        }
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    /**
+     * @param monitor told about the molecules captured after every test set,
+     * may stop the generation
+     */
+    public TestDataSet withProgress(ProgressMonitor monitor) {
+        this.monitor = monitor;
+        return this;
+    }
+
+    /**
+     * @param timeout how long the generation may take, from the first test
+     * set on; once it is over the generation stops with the test sets
+     * generated so far
+     */
+    public TestDataSet withTimeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    public long getOptimizationNanos() {
+        return optimizationNanos;
+    }
+
+    /**
+     * @param budget how long buildTestCases may spend shrinking the test sets
+     * once they are all generated, see optimize; 0 to keep them as generated
+     */
+    public TestDataSet withOptimization(long budget, TimeUnit unit) {
+
+        if (budget < 0) {
+            throw new IllegalArgumentException("Optimization budget must not be negative, but was " + budget);
+        }
+        this.optimizationNanos = unit.toNanos(budget);
+        return this;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param attempts number of generations buildTestCases runs concurrently
+     * on the pool, with the seeds from the seed of this data set on, each on
+     * its own snapshot of the inventory. The fewest test sets win and their
+     * seed becomes the seed of this data set, so a single generation with it
+     * reproduces them. The iterator always runs a single generation
+     */
+    public TestDataSet withAttempts(int attempts) {
+
+        if (attempts < 1) {
+            throw new IllegalArgumentException("Attempts must be at least 1, but was " + attempts);
+        }
+        this.attempts = attempts;
+        return this;
+    }
 
+    /**
+     * Stops the generation after the test set being generated, can be called
+     * from any thread. The test sets generated so far are kept
+     */
+    public void cancel() {
+        stopped = true;
+        TestDataSet[] runs = this.runs;
+
+        if (runs != null) {
+
+            for (TestDataSet run : runs) {
+                run.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return true once every molecule is captured, false while generating or
+     * if the generation was stopped early
+     */
+    public boolean isComplete() {
+        return inventory.getUnusedMoleculeCount() == 0;
+    }
+
+    /**
+     * @param listener told how long every step of the algorithm takes, also
+     * set on the inventory, which may report building its molecules
+     */
+    public TestDataSet withListener(GenerationListener listener) {
+        this.listener = listener;
+        inventory.setListener(listener);
+        return this;
+    }
+
+    /**
+     * @param pool the pool candidate test sets are built on when the pool size
+     * is bigger than 1
+     */
+    public TestDataSet withPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public void buildTestCases() {
+
+        if (attempts > 1) {
+            buildBestTestCases();
+            return;
+        }
+
+        int[] bestTestSet;
+
+        while ((bestTestSet = nextTestSet()) != null) { //keep iterating until all pairs are used
             testSets.add(bestTestSet); // Add the best candidate to the main testSets List
-            inventory.updateAllCounts(bestTestSet);
         } //while loop from hell
+
+        if (optimizationNanos > 0 && !stopped) {
+            optimize(optimizationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Runs the attempts and takes over the test sets of the best one: complete
+     * before partial, then the fewest test sets, then the smallest seed. The
+     * progress monitor is not told about the attempts. Once the thread waiting
+     * for them is interrupted the attempts are cancelled, none is taken over
+     */
+    private void buildBestTestCases() {
+        TestDataSet[] runs = new TestDataSet[attempts];
+        List<Callable<TestDataSet>> tasks = new ArrayList<>(attempts);
+
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            final TestDataSet run = new TestDataSet(inventory.snapshot(), scenario)
+                    .withSeed(seed + attempt)
+                    .withPoolSize(poolSize)
+                    .withPool(pool);
+            run.timeoutNanos = timeoutNanos;
+            run.optimizationNanos = optimizationNanos;
+            run.listener = listener;
+            runs[attempt] = run;
+
+            tasks.add(new Callable<TestDataSet>() {
+                @Override
+                public TestDataSet call() {
+                    run.buildTestCases();
+                    return run;
+                }
+            });
+        }
+
+        this.runs = runs;
+
+        if (stopped) {
+            cancel();
+        }
+
+        TestDataSet best = null;
+        List<Future<TestDataSet>> results = new ArrayList<>(attempts);
+
+        // submitted one by one, as invokeAll would wait for every attempt even once interrupted
+        for (Callable<TestDataSet> task : tasks) {
+            results.add(pool.submit(task));
+        }
+
+        try {
+            for (Future<TestDataSet> result : results) {
+                TestDataSet run = result.get();
+
+                if (best == null || isBetter(run, best)) {
+                    best = run;
+                }
+            }
+        } catch (InterruptedException ex) {
+            // the attempts stop after their current test set, this data set stays incomplete
+            Thread.currentThread().interrupt();
+            cancel();
+
+            for (Future<TestDataSet> result : results) {
+                result.cancel(true);
+            }
+            return;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Can't build the test sets of an attempt", ex.getCause());
+        } finally {
+            this.runs = null;
+        }
+
+        withSeed(best.seed);
+        testSets.addAll(best.testSets);
+        inventory.updateAllCounts(best.testSets);
+        stopped |= best.stopped;
+
+        if (best.isComplete()) {
+            // the molecules no legal test set can hold
+            for (Molecule molecule : new ArrayList<Molecule>(inventory.getUnusedMolecules())) {
+                inventory.excludeMolecule(molecule.getAtoms());
+            }
+        }
+    }
+
+    private static boolean isBetter(TestDataSet run, TestDataSet best) {
+
+        if (run.isComplete() != best.isComplete()) {
+            return run.isComplete();
+        }
+
+        if (!run.isComplete() && run.inventory.getUnusedMoleculeCount() != best.inventory.getUnusedMoleculeCount()) {
+            return run.inventory.getUnusedMoleculeCount() < best.inventory.getUnusedMoleculeCount();
+        }
+        return run.testSets.size() < best.testSets.size();
+    }
+
+    /**
+     * Shrinks the test sets generated so far, keeping every molecule they
+     * capture: test sets capturing nothing on their own are dropped, then test
+     * sets are eliminated by moving their values into the others until the
+     * budget is spent or no test set can go. The greedy algorithm often
+     * generates a fifth more test sets than needed. Test sets already handed
+     * out by the iterator are out of reach
+     *
+     * @return the number of test sets removed
+     */
+    public int optimize(long budget, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(budget);
+        return new RowEliminator(inventory, testSets, new Random(seed)).run(deadline);
+    }
+
+    /**
+     * Runs one step of the algorithm: picks the best of the candidate test sets
+     * and marks its molecules as used in the inventory. A molecule no legal
+     * test set can hold is marked as used without one
+     *
+     * @return the chosen test set, or null once every molecule is used or the
+     * generation is stopped, see isComplete
+     */
+    protected int[] nextTestSet() {
+        GenerationListener listener = this.listener != null ? this.listener : inventory.getListener(); // nothing is measured without one
+
+        if (!started) {
+            started = true;
+            startNanos = System.nanoTime();
+            startUnusedMolecules = inventory.getUnusedMoleculeCount();
+        }
+
+        while (inventory.getUnusedMoleculeCount() > 0 && !isStopped()) {
+            if (listener != null) {
+                listener.testSetStarted();
+            }
+
+            long start = listener != null ? System.nanoTime() : 0;
+            int[] bestMolecule = inventory.getBestMolecule();
+
+            if (listener != null) {
+                long now = System.nanoTime();
+                listener.bestMoleculePicked(bestMolecule, now - start);
+                start = now;
+            }
+
+            int[][] candidateSets = getCandidateSets(bestMolecule, iteration++); // holds candidate testSets
+
+            if (candidateSets == null) {
+                // interrupted while building them
+                stopped = true;
+                return null;
+            }
+
+            int[] bestTestSet = determineBestCandidateSet(candidateSets);
+
+            if (bestTestSet == null) {
+                // every candidate ran into the constraints, look for any legal test set
+                bestTestSet = getLegalTestSet(bestMolecule);
+            }
+
+            if (listener != null) {
+                long now = System.nanoTime();
+                listener.candidatesBuilt(candidateSets.length, now - start);
+                start = now;
+            }
+
+            if (bestTestSet != null) {
+                inventory.updateAllCounts(bestTestSet);
+
+                if (listener != null) {
+                    listener.countsUpdated(bestTestSet, System.nanoTime() - start);
+                    listener.testSetAdded(bestTestSet, inventory.getUnusedMoleculeCount());
+                }
+
+                int unused = inventory.getUnusedMoleculeCount();
+
+                if (monitor != null && !monitor.progress(startUnusedMolecules - excludedMolecules - unused, excludedMolecules, unused)) {
+                    stopped = true;
+                }
+                return bestTestSet;
+            }
+            inventory.excludeMolecule(bestMolecule);
+            ++excludedMolecules;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the generation was cancelled, its time is over or its
+     * thread is interrupted; the interrupt flag is left as it is
+     */
+    protected boolean isStopped() {
+
+        if (!stopped && (Thread.currentThread().isInterrupted() || timeoutNanos >= 0 && System.nanoTime() - startNanos > timeoutNanos)) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * Streams the test sets: every next() generates one more test set, which is
+     * not kept by this TestDataSet, so memory stays flat however large the
+     * suite is. The test sets are the same buildTestCases would produce
+     *
+     * @return the test sets as value indexes of the scenario, ordered by
+     * parameter set
+     */
+    public Iterator<int[]> iterator() {
+        return new Iterator<int[]>() {
+            private int[] next;
+
+            @Override
+            public boolean hasNext() {
+
+                if (next == null) {
+                    next = nextTestSet();
+                }
+                return next != null;
+            }
+
+            @Override
+            public int[] next() {
+
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                int[] testSet = next;
+                next = null;
+                return testSet;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return the test cases streamed by iterator(), as values ordered by
+     * parameter set
+     */
+    public Stream<Object[]> stream() {
+        Spliterator<int[]> testSets = Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(testSets, false).map(new Function<int[], Object[]>() {
+            @Override
+            public Object[] apply(int[] testSet) {
+                return getValues(testSet);
+            }
+        });
+    }
+
+    /**
+     * @return the names of the parameter sets, in the order getValues returns
+     * the values
+     */
+    public Object[] getNames() {
+        Object[] names = new Object[scenario.getParameterSetCount()];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = scenario.getParameterName(i);
+        }
+        return names;
+    }
+
+    /**
+     * @return the values the indexes of the test set stand for
+     */
+    public Object[] getValues(int[] testSet) {
+        return scenario.decode(testSet);
+    }
+
+    /**
+     * Builds poolSize candidates around the same best molecule. The inventory
+     * is only read here, so the candidates are built concurrently, each with
+     * its own Random derived from the seed, the iteration and the candidate
+     * index
+     *
+     * @return the candidates, null if the thread got interrupted waiting for
+     * them
+     */
+    protected int[][] getCandidateSets(final int[] bestMolecule, long iteration) {
+        int[][] candidateSets = new int[poolSize][];
+
+        if (poolSize == 1) {
+            candidateSets[0] = getSingleTestSet(bestMolecule, getCandidateRandom(iteration, 0));
+            return candidateSets;
+        }
+
+        List<Callable<int[]>> candidates = new ArrayList<>(poolSize);
+
+        for (int candidate = 0; candidate < poolSize; ++candidate) {
+            final Random candidateRandom = getCandidateRandom(iteration, candidate);
+
+            candidates.add(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    return getSingleTestSet(bestMolecule, candidateRandom);
+                }
+            });
+        } // for each candidate testSet
+
+        List<Future<int[]>> results = pool.invokeAll(candidates);
+
+        for (int candidate = 0; candidate < poolSize; ++candidate) {
+
+            try {
+                candidateSets[candidate] = results.get(candidate).get();  // add candidate testSet to candidateSets array
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Can't build a candidate test set", ex.getCause());
+            }
+        }
+        return candidateSets;
+    }
+
+    protected Random getCandidateRandom(long iteration, int candidate) {
+        // spread the seeds with the golden ratio so neighbouring candidates don't get correlated sequences
+        return new Random(seed + 0x9E3779B97F4A7C15L * (iteration * poolSize + candidate + 1));
     }
 
     public List<Map<Object, Object>> getTestSets() {
         List<int[]> testSetIndexes = getRawTestSets();
-        List<Map<Object, Object>> completeDataSet = new ArrayList();
+        List<Map<Object, Object>> completeDataSet = new ArrayList(testSetIndexes.size());
+        Object[] names = getNames();
 
+        // the rows stay value indexes until here, decoded through the dictionary of the scenario
         for (int[] testSetIndex : testSetIndexes) {
             Map<Object, Object> singleTestSet = new LinkedHashMap();
 
-            for (int j = 0; j < scenario.getParameterSetCount(); j++) {
-                Object value = scenario.getParameterValues()
-                        .get(testSetIndex[j]);
-                singleTestSet.put(scenario.getParameterSet(scenario.getParameterPositions()[testSetIndex[j]]).getName(), value);
+            for (int j = 0; j < names.length; j++) {
+                singleTestSet.put(names[scenario.getParameterPositions()[testSetIndex[j]]], scenario.getValue(testSetIndex[j]));
             }
             completeDataSet.add(singleTestSet);
         }
@@ -58,53 +526,141 @@ public class TestDataSet {
 
     //It's hard to figure out how to break this up into smaller chunks--everything in inter-dependent
     protected int[] getSingleTestSet() {
-        int[] bestMolecule = inventory.getBestMolecule();
+        return getSingleTestSet(inventory.getBestMolecule(), random);
+    }
+
+    /**
+     * @return the candidate test set, or null if the constraints of the
+     * scenario left no legal value for some position
+     */
+    protected int[] getSingleTestSet(int[] bestMolecule, Random random) {
+        int[] parameterPositions = scenario.getParameterPositions();
+        int[][] legalValues = scenario.getLegalValues();
+        int[] fixedPositions = new int[bestMolecule.length];
+        BitSet[] conflicts = scenario.getConflicts();
+        BitSet blocked = conflicts == null ? null : new BitSet(scenario.getParameterValuesCount()); // the values conflicting with the ones placed
+        long[] placedValues = new long[(scenario.getParameterValuesCount() + 63) >>> 6]; // the values placed, as a mask over the value indexes
 
-        int firstPos = scenario.getParameterPositions()[bestMolecule[0]];  // position of first parameter set from best unused pair
-        int secondPos = scenario.getParameterPositions()[bestMolecule[1]]; // position of second parameter set from best unused pair
+        // place the values from best unused molecule into candidate testSet
+        int[] testSet = new int[legalValues.length]; // make an empty candidate testSet
 
-        // place two parameter values from best unused pair into candidate testSet
-        int[] testSet = new int[scenario.getParameterSetCount()]; // make an empty candidate testSet
-        testSet[firstPos] = bestMolecule[0];
-        testSet[secondPos] = bestMolecule[1];
+        for (int atom = 0; atom < bestMolecule.length; atom++) {
+            fixedPositions[atom] = parameterPositions[bestMolecule[atom]];  // position of parameter set from best unused molecule
+            testSet[fixedPositions[atom]] = bestMolecule[atom];
+            placedValues[bestMolecule[atom] >>> 6] |= 1L << bestMolecule[atom];
+            block(blocked, conflicts, bestMolecule[atom]);
+        }
 
-        int[] ordering = getParameterOrdering(firstPos, secondPos);
+        int[] ordering = getParameterOrdering(fixedPositions, random);
 
-        // for remaining parameter positions in candidate testSet, try each possible legal value, picking the one which captures the most unused pair
-        for (int i = 2; i < scenario.getParameterSetCount(); i++) {
+        // for remaining parameter positions in candidate testSet, try each possible legal value, picking the one which captures the most unused molecules
+        for (int i = bestMolecule.length; i < legalValues.length; i++) {
             int currPos = ordering[i];
-            int[] possibleValues = scenario.getLegalValues()[currPos];
+            int[] possibleValues = legalValues[currPos];
 
-            int highestCount = 0;
-            int bestJ = 0;
+            int highestCount = -1;
+            int bestJ = -1;
             for (int j = 0; j < possibleValues.length; j++) {
-                int currentCount = 0;
-                for (int p = 0; p < i; ++p) {
-                    int[] candidatePair = new int[]{possibleValues[j], testSet[ordering[p]]};
-                    if (inventory.getUnusedMoleculesSearch()[candidatePair[0]][candidatePair[1]] == 1
-                            || inventory.getUnusedMoleculesSearch()[candidatePair[1]][candidatePair[0]] == 1) {
-                        ++currentCount;
-                    }
+
+                if (blocked != null && blocked.get(possibleValues[j])) {
+                    continue;
                 }
+
+                int currentCount = inventory.numberMoleculesCaptured(possibleValues[j], placedValues, testSet, ordering, i);
+
                 if (currentCount > highestCount) {
                     highestCount = currentCount;
                     bestJ = j;
                 }
             }
+
+            if (bestJ < 0) {
+                return null;
+            }
             testSet[currPos] = possibleValues[bestJ];
+            placedValues[possibleValues[bestJ] >>> 6] |= 1L << possibleValues[bestJ];
+            block(blocked, conflicts, possibleValues[bestJ]);
         } // i -- each testSet position 
 
         return testSet;
     }
 
+    private static void block(BitSet blocked, BitSet[] conflicts, int value) {
+
+        if (blocked != null && conflicts[value] != null) {
+            blocked.or(conflicts[value]);
+        }
+    }
+
+    /**
+     * Searches all the legal test sets holding the molecule, depth first, for
+     * when the greedy candidates all ran into the constraints
+     *
+     * @return the first legal test set found, or null if there is none
+     */
+    protected int[] getLegalTestSet(int[] bestMolecule) {
+        BitSet[] conflicts = scenario.getConflicts();
+
+        if (conflicts == null) {
+            return null;
+        }
+
+        int[] testSet = new int[scenario.getParameterSetCount()];
+        int[] fixedPositions = new int[bestMolecule.length];
+        BitSet blocked = new BitSet(scenario.getParameterValuesCount());
+
+        for (int atom = 0; atom < bestMolecule.length; atom++) {
+            fixedPositions[atom] = scenario.getParameterPositions()[bestMolecule[atom]];
+            testSet[fixedPositions[atom]] = bestMolecule[atom];
+            block(blocked, conflicts, bestMolecule[atom]);
+        }
+
+        int[] ordering = getParameterOrdering(fixedPositions, new Random(seed));
+        return fill(testSet, ordering, bestMolecule.length, blocked, conflicts) ? testSet : null;
+    }
+
+    private boolean fill(int[] testSet, int[] ordering, int i, BitSet blocked, BitSet[] conflicts) {
+
+        if (i == ordering.length) {
+            return true;
+        }
+
+        for (int value : scenario.getLegalValues()[ordering[i]]) {
+
+            if (!blocked.get(value)) {
+                BitSet next = blocked;
+
+                if (conflicts[value] != null) {
+                    next = (BitSet) blocked.clone();
+                    next.or(conflicts[value]);
+                }
+                testSet[ordering[i]] = value;
+
+                if (fill(testSet, ordering, i + 1, next, conflicts)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the candidate capturing the most unused molecules, null if every
+     * candidate is null
+     */
     protected int[] determineBestCandidateSet(int[][] candidateSets) {
         // Iterate through candidateSets to determine the best candidate
         random.setSeed(random.nextLong());
         int indexOfBestCandidate = random.nextInt(candidateSets.length); // pick a random index as best
-        int mostPairsCaptured = inventory.numberMoleculesCaptured(candidateSets[indexOfBestCandidate]);
+        int mostPairsCaptured = candidateSets[indexOfBestCandidate] == null ? -1 : inventory.numberMoleculesCaptured(candidateSets[indexOfBestCandidate]);
 
         // Determine "best" candidate to use
         for (int i = 0; i < candidateSets.length; ++i) {
+
+            if (candidateSets[i] == null) {
+                continue;
+            }
+
             int pairsCaptured = inventory.numberMoleculesCaptured(candidateSets[i]);
 
             if (pairsCaptured > mostPairsCaptured) {
@@ -117,22 +673,33 @@ public class TestDataSet {
     }
 
     protected int[] getParameterOrdering(int firstPos, int secondPos) {
+        return getParameterOrdering(firstPos, secondPos, random);
+    }
+
+    protected int[] getParameterOrdering(int firstPos, int secondPos, Random random) {
+        return getParameterOrdering(new int[]{firstPos, secondPos}, random);
+    }
+
+    protected int[] getParameterOrdering(int[] fixedPositions, Random random) {
         // generate a random order to fill parameter positions
         int[] ordering = new int[scenario.getLegalValues().length];
         for (int i = 0; i < scenario.getLegalValues().length; i++) { // initially all in order
             ordering[i] = i;
         }
 
-        // put firstPos at ordering[0] && secondPos at ordering[1]
-        ordering[0] = firstPos;
-        ordering[firstPos] = 0;
+        // swap the fixed positions to the start of the ordering
+        for (int i = 0; i < fixedPositions.length; i++) {
+            int j = i;
 
-        int t = ordering[1];
-        ordering[1] = secondPos;
-        ordering[secondPos] = t;
+            while (ordering[j] != fixedPositions[i]) {
+                j++;
+            }
+            ordering[j] = ordering[i];
+            ordering[i] = fixedPositions[i];
+        }
 
-        // shuffle ordering[2] thru ordering[last]
-        for (int i = 2; i < ordering.length; i++) { // Knuth shuffle. start at i=2 because want first two slots left alone
+        // shuffle the rest of the ordering
+        for (int i = fixedPositions.length; i < ordering.length; i++) { // Knuth shuffle. start after the fixed positions because want them left alone
             int j = random.nextInt(ordering.length - i) + i;
             int temp = ordering[j];
             ordering[j] = ordering[i];
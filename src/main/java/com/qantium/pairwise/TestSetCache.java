@@ -0,0 +1,264 @@
+package com.qantium.pairwise;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A directory of generated test sets, one file per scenario, keyed by a hash of everything the test sets depend on: the
+ * names and values of the scenario, its constraints, the number of atoms per molecule, the seed, the pool size, the
+ * optimization budget and the attempts. Files hold the raw test sets as ints, so a hit costs a single read of the file
+ *
+ * The cache is best effort: an entry that can't be read is a miss, an entry that can't be written is dropped. Several
+ * processes may share the directory: entries are written to a temporary file and moved in place. Once the files take
+ * more than maxBytes, the least recently used ones are deleted
+ */
+public class TestSetCache {
+
+    /**
+     * Part of every key: change it whenever the algorithm produces different
+     * test sets for the same scenario
+     */
+    private static final String ALGORITHM_VERSION = "2";
+    private static final int MAGIC = 0x51545343;
+    private static final String SUFFIX = ".testsets";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory where the entries are kept, created if needed
+     * @param maxBytes the total size of the entries to keep
+     */
+    public TestSetCache(File directory, long maxBytes) {
+
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive, but was " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the key of the test sets the data set generates for its
+     * inventory from scratch: the coverage state is not part of it, so it
+     * only fits inventories with no molecule used yet
+     */
+    public String key(IInventory inventory, TestDataSet dataSet) {
+        Scenario scenario = inventory.getScenario();
+        MessageDigest digest = newDigest();
+        update(digest, ALGORITHM_VERSION);
+        update(digest, inventory.getStrength() + "/" + dataSet.getSeed() + "/" + dataSet.getPoolSize());
+
+        if (dataSet.getOptimizationNanos() > 0) {
+            // the budget, not the time it took, so a slower machine still hits
+            update(digest, "optimized/" + dataSet.getOptimizationNanos());
+        }
+
+        if (dataSet.getAttempts() > 1) {
+            update(digest, "attempts/" + dataSet.getAttempts());
+        }
+
+        for (int i = 0; i < scenario.getParameterSetCount(); i++) {
+            update(digest, scenario.getParameterName(i));
+
+            for (int index : scenario.getLegalValues()[i]) {
+                Object value = scenario.getValue(index);
+                update(digest, value == null ? "null" : value.getClass().getName() + ":" + value);
+            }
+        }
+
+        if (scenario.getConstraints() != null) {
+            update(digest, scenario.getConstraints().toString());
+        }
+
+        StringBuilder key = new StringBuilder();
+
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the test sets stored under the key, null if there are none
+     */
+    public List<int[]> get(String key) {
+        File file = getFile(key);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+
+            if (ints.remaining() < 3 || ints.get() != MAGIC) {
+                throw new IOException("Not a test set file: " + file);
+            }
+
+            int count = ints.get();
+            int width = ints.get();
+
+            if (count < 0 || width < 0 || (long) count * width != ints.remaining()) {
+                throw new IOException("Truncated test set file: " + file);
+            }
+
+            List<int[]> testSets = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                int[] testSet = new int[width];
+                ints.get(testSet);
+                testSets.add(testSet);
+            }
+
+            // the files are evicted by age, a hit makes the entry young again
+            file.setLastModified(System.currentTimeMillis());
+            return testSets;
+        } catch (IOException ex) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the test sets under the key, then evicts the least recently used
+     * entries until the cache fits its size
+     */
+    public void put(String key, List<int[]> testSets) {
+        int width = testSets.isEmpty() ? 0 : testSets.get(0).length;
+        File file = getFile(key);
+        File temporary = null;
+
+        try {
+            Files.createDirectories(directory.toPath());
+            temporary = File.createTempFile(key, ".tmp", directory);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(testSets.size());
+                out.writeInt(width);
+                ByteBuffer row = ByteBuffer.allocate(4 * width);
+
+                for (int[] testSet : testSets) {
+                    row.clear();
+                    row.asIntBuffer().put(testSet);
+                    out.write(row.array());
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+
+            if (temporary != null) {
+                temporary.delete();
+            }
+            return;
+        }
+        evict();
+    }
+
+    public void clear() {
+        File[] files = listEntries();
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    protected void evict() {
+        File[] files = listEntries();
+        final long[] lastModified = new long[files.length];
+        long size = 0;
+
+        for (int i = 0; i < files.length; i++) {
+            size += files[i].length();
+        }
+
+        if (size <= maxBytes) {
+            return;
+        }
+
+        Integer[] order = new Integer[files.length];
+
+        for (int i = 0; i < files.length; i++) {
+            order[i] = i;
+            lastModified[i] = files[i].lastModified();
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+
+        for (int i = 0; i < order.length && size > maxBytes; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    protected File getFile(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private File[] listEntries() {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return new File[0];
+        }
+
+        List<File> entries = new ArrayList<>(files.length);
+
+        for (File file : files) {
+
+            if (file.getName().endsWith(SUFFIX)) {
+                entries.add(file);
+            }
+        }
+        return entries.toArray(new File[entries.size()]);
+    }
+
+    private static MessageDigest newDigest() {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        // prefix the length, so ["ab", "c"] and ["a", "bc"] hash differently
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+}
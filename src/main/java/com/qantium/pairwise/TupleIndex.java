@@ -0,0 +1,210 @@
+package com.qantium.pairwise;
+
+/**
+ * Maps every legal molecule of n atoms (one value from each of n different parameter sets) of a Scenario onto a dense
+ * integer id in the range [0, getCount()), so the molecules never have to be materialized
+ *
+ * The combinations of n parameter sets are ranked in colexicographic order: the combination [p1 < p2 < ... < pn] gets
+ * the rank C(p1, 1) + C(p2, 2) + ... + C(pn, n). Every combination owns a block of ids as large as the product of the
+ * sizes of its parameter sets, and the position of a molecule inside its block is the mixed-radix number made of the
+ * local indexes of its values
+ *
+ * Consider this parameter set: Param1: a, b, c Param2: i, j, k, l Param3: x, y and molecules of 2 atoms
+ *
+ * combinations: [0, 1] (rank 0, 12 ids), [0, 2] (rank 1, 6 ids), [1, 2] (rank 2, 8 ids)
+ *
+ * so the molecule [c, y] = [2, 8] gets the id 12 + (2 * 2 + 1) = 17
+ */
+public final class TupleIndex {
+
+    private final int strength;
+    private final int[] parameterPositions;
+    private final int[] parameterStarts;
+    private final int[] parameterSizes;
+    private final long[][] binomials;
+    private final int[] blockStarts;
+
+    public TupleIndex(Scenario scenario, int strength) {
+        int[][] legalValues = scenario.getLegalValues();
+        int parametersCount = legalValues.length;
+
+        if (strength < 2 || strength > parametersCount) {
+            throw new IllegalArgumentException("Molecules must have from 2 to " + parametersCount + " atoms, but was " + strength);
+        }
+
+        this.strength = strength;
+        this.parameterPositions = scenario.getParameterPositions();
+        this.parameterStarts = new int[parametersCount];
+        this.parameterSizes = new int[parametersCount];
+
+        for (int i = 0; i < parametersCount; i++) {
+            parameterSizes[i] = legalValues[i].length;
+            parameterStarts[i] = parameterSizes[i] > 0 ? legalValues[i][0] : 0;
+        }
+
+        binomials = new long[parametersCount + 1][strength + 1];
+
+        for (int n = 0; n <= parametersCount; n++) {
+            binomials[n][0] = 1;
+
+            for (int k = 1; k <= Math.min(n, strength); k++) {
+                binomials[n][k] = binomials[n - 1][k - 1] + (k <= n - 1 ? binomials[n - 1][k] : 0);
+            }
+        }
+
+        long combinationsCount = binomials[parametersCount][strength];
+
+        if (combinationsCount >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Scenario is too large: " + combinationsCount + " combinations of parameter sets");
+        }
+
+        blockStarts = new int[(int) combinationsCount + 1];
+        int[] combination = firstCombination();
+        long start = 0;
+
+        for (int rank = 0; rank < combinationsCount; rank++) {
+            blockStarts[rank] = (int) start;
+            start += getBlockSize(combination);
+
+            if (start > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Scenario is too large: more than " + Integer.MAX_VALUE + " molecules of " + strength + " atoms");
+            }
+            nextCombination(combination);
+        }
+        blockStarts[(int) combinationsCount] = (int) start;
+    }
+
+    /**
+     * @return the number of atoms per molecule
+     */
+    public int getStrength() {
+        return strength;
+    }
+
+    /**
+     * @return the number of legal molecules of this scenario
+     */
+    public int getCount() {
+        return blockStarts[blockStarts.length - 1];
+    }
+
+    /**
+     * @return the number of combinations of parameter sets
+     */
+    public int getCombinationsCount() {
+        return blockStarts.length - 1;
+    }
+
+    /**
+     * The molecules of one combination of parameter sets have consecutive ids,
+     * from getBlockStart(rank) inclusive to getBlockStart(rank + 1) exclusive
+     */
+    public int getBlockStart(int rank) {
+        return blockStarts[rank];
+    }
+
+    /**
+     * @param atoms the value indexes of the molecule, sorted in ascending order
+     * @return the id of the molecule
+     */
+    public int id(int[] atoms) {
+        long rank = 0;
+        int local = 0;
+
+        for (int i = 0; i < strength; i++) {
+            int parameter = parameterPositions[atoms[i]];
+            rank += binomials[parameter][i + 1];
+            local = local * parameterSizes[parameter] + atoms[i] - parameterStarts[parameter];
+        }
+        return blockStarts[(int) rank] + local;
+    }
+
+    /**
+     * Writes the value indexes of the molecule with the given id into atoms,
+     * in ascending order
+     */
+    public void getAtoms(int id, int[] atoms) {
+        int low = 0;
+        int high = blockStarts.length - 2;
+
+        // the last combination whose block starts not after id (combinations with an empty parameter set own no ids)
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (blockStarts[middle] <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        getCombination(low, atoms);
+        decode(id - blockStarts[low], atoms, atoms);
+    }
+
+    /**
+     * Writes the parameter set indexes of the combination with the given rank
+     * into parameters, in ascending order
+     */
+    public void getCombination(int rank, int[] parameters) {
+        long remainder = rank;
+        int parameter = binomials.length - 1;
+
+        for (int k = strength; k >= 1; k--) {
+
+            while (binomials[parameter][k] > remainder) {
+                parameter--;
+            }
+            parameters[k - 1] = parameter;
+            remainder -= binomials[parameter][k];
+        }
+    }
+
+    /**
+     * Turns the position of a molecule inside the block of a combination into
+     * the value indexes of its atoms
+     *
+     * @param local the position inside the block
+     * @param parameters the combination of parameter sets
+     * @param atoms receives the value indexes, may be the parameters array
+     */
+    public void decode(int local, int[] parameters, int[] atoms) {
+
+        for (int i = strength - 1; i >= 0; i--) {
+            int parameter = parameters[i];
+            atoms[i] = parameterStarts[parameter] + local % parameterSizes[parameter];
+            local /= parameterSizes[parameter];
+        }
+    }
+
+    private int[] firstCombination() {
+        int[] combination = new int[strength];
+
+        for (int i = 0; i < strength; i++) {
+            combination[i] = i;
+        }
+        return combination;
+    }
+
+    /**
+     * Moves to the combination with the next colexicographic rank
+     */
+    private void nextCombination(int[] combination) {
+        int i = 0;
+
+        while (i < strength - 1 && combination[i] + 1 == combination[i + 1]) {
+            combination[i] = i;
+            i++;
+        }
+        combination[i]++;
+    }
+
+    private long getBlockSize(int[] combination) {
+        long size = 1;
+
+        for (int parameter : combination) {
+            size *= parameterSizes[parameter];
+        }
+        return size;
+    }
+}